@@ -0,0 +1,185 @@
+package nirhart.dripmysteps;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.RectF;
+import android.os.Build;
+import android.util.LruCache;
+
+/**
+ * LRU cache of a drawable resource scaled and center cropped to surface sizes.
+ * Entries are keyed by width, height and config, so both orientations stay cached
+ * and rotating back and forth never decodes the resource again.
+ * The last decoded source is kept for the next decode only while it fits in the budget with the scaled bitmaps.
+ * The cached bitmaps are shared, callers must never recycle them.
+ */
+public class BitmapCache {
+
+	private final Resources resources;
+	private final int resourceId;
+	private final LruCache<Key, Bitmap> cache;
+	private final int maxBytes;
+	// The last decoded source, reused as inBitmap for the next decode
+	private Bitmap decodeBuffer;
+
+	/**
+	 * @param resources  - resources to decode from
+	 * @param resourceId - the drawable to scale
+	 * @param maxBytes   - eviction budget for the scaled bitmaps and the decode buffer
+	 */
+	public BitmapCache(Resources resources, int resourceId, int maxBytes) {
+		this.resources = resources;
+		this.resourceId = resourceId;
+		this.maxBytes = maxBytes;
+		this.cache = new LruCache<Key, Bitmap>(maxBytes) {
+			@Override
+			protected int sizeOf(Key key, Bitmap value) {
+				return value.getByteCount();
+			}
+		};
+	}
+
+	/**
+	 * Scale and center crop a bitmap to fit new dimensions
+	 *
+	 * @param source     - source bitmap to scale and center crop
+	 * @param destWidth  - destination width
+	 * @param destHeight - destination height
+	 * @param config     - destination config
+	 * @return - the new scaled and centered bitmap
+	 */
+	public static Bitmap scaleCenterCrop(Bitmap source, int destWidth, int destHeight, Bitmap.Config config) {
+		float[] bounds = new float[4];
+		CropGeometry.centerCrop(source.getWidth(), source.getHeight(), destWidth, destHeight, bounds);
+		RectF destRect = new RectF(bounds[0], bounds[1], bounds[2], bounds[3]);
+
+		Bitmap dest = Bitmap.createBitmap(destWidth, destHeight, config);
+		Canvas canvas = new Canvas(dest);
+		canvas.drawBitmap(source, null, destRect, null);
+
+		return dest;
+	}
+
+	/**
+	 * Get the resource scaled and center cropped to the given size, decoding it only on a cache miss
+	 */
+	public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+		Key key = new Key(width, height, config);
+		Bitmap bitmap = cache.get(key);
+
+		if (bitmap == null || bitmap.isRecycled()) {
+			Bitmap source = decode(width, height, config);
+			bitmap = scaleCenterCrop(source, width, height, config);
+			cache.put(key, bitmap);
+			// The full size source is the biggest bitmap here, keep it only if it fits in what the scaled ones left
+			decodeBuffer = cache.size() + source.getByteCount() <= maxBytes ? source : null;
+		}
+
+		return bitmap;
+	}
+
+	private Bitmap decode(int width, int height, Bitmap.Config config) {
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeResource(resources, resourceId, options);
+
+		options.inSampleSize = CropGeometry.calculateInSampleSize(options.outWidth, options.outHeight, width, height);
+		options.inJustDecodeBounds = false;
+		options.inPreferredConfig = config;
+		options.inMutable = true;
+
+		if (canReuse(decodeBuffer, options)) {
+			options.inBitmap = decodeBuffer;
+			try {
+				return BitmapFactory.decodeResource(resources, resourceId, options);
+			} catch (IllegalArgumentException e) {
+				// The buffer did not fit after all, decode into a new bitmap
+				options.inBitmap = null;
+			}
+		}
+
+		return BitmapFactory.decodeResource(resources, resourceId, options);
+	}
+
+	/**
+	 * Check if a bitmap can be used as inBitmap for the decode described by the options
+	 */
+	private static boolean canReuse(Bitmap candidate, BitmapFactory.Options options) {
+		if (candidate == null || candidate.isRecycled() || !candidate.isMutable())
+			return false;
+
+		int width = options.outWidth / options.inSampleSize;
+		int height = options.outHeight / options.inSampleSize;
+
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+			int bytesPerPixel = options.inPreferredConfig == Bitmap.Config.ARGB_8888 ? 4 : 2;
+			return width * height * bytesPerPixel <= candidate.getAllocationByteCount();
+		}
+
+		// Before KitKat only an exact size match without sampling can be reused
+		return options.inSampleSize == 1 && candidate.getWidth() == width && candidate.getHeight() == height && candidate.getConfig() == options.inPreferredConfig;
+	}
+
+	/**
+	 * Drop the reusable decode buffer, the next decode allocates a new one
+	 */
+	public synchronized void releaseDecodeBuffer() {
+		decodeBuffer = null;
+	}
+
+	/**
+	 * Drop all the cached bitmaps and the decode buffer.
+	 * The bitmaps are not recycled since engines may still draw them, they are freed once no engine holds them.
+	 */
+	public synchronized void evictAll() {
+		cache.evictAll();
+		decodeBuffer = null;
+	}
+
+	/**
+	 * @return bytes held by the cached bitmaps
+	 */
+	public synchronized int getCachedBytes() {
+		return cache.size();
+	}
+
+	/**
+	 * @return bytes held by the reusable decode buffer
+	 */
+	public synchronized int getDecodeBufferBytes() {
+		return decodeBuffer == null || decodeBuffer.isRecycled() ? 0 : decodeBuffer.getByteCount();
+	}
+
+	private static final class Key {
+		private final int width;
+		private final int height;
+		private final Bitmap.Config config;
+
+		Key(int width, int height, Bitmap.Config config) {
+			this.width = width;
+			this.height = height;
+			this.config = config;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o)
+				return true;
+			if (!(o instanceof Key))
+				return false;
+
+			Key key = (Key) o;
+			return width == key.width && height == key.height && config == key.config;
+		}
+
+		@Override
+		public int hashCode() {
+			int result = width;
+			result = 31 * result + height;
+			result = 31 * result + config.hashCode();
+			return result;
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package nirhart.dripmysteps;
+
+import android.graphics.Rect;
+
+/**
+ * Computes the smallest rect of the drip that changes between two frames.
+ * The wave texture only varies inside its own rows, above and below them the shader clamps to uniform edge rows,
+ * so a frame only changes the rows from the previous wave rows to the current ones, and everything between them
+ * when the sea level moved by more than the wave height. That span is rotated by the water rotation of both frames
+ * and widened by the height of the water surface.
+ * Should be used from the UI thread.
+ */
+public class DirtyRegionTracker {
+
+	// Extra pixels around the band to cover filtering at the band edges
+	private static final int EDGE_PADDING = 2;
+
+	private final Rect bounds = new Rect();
+	private final float[] band = new float[4];
+	private float pivotX, pivotY;
+	private float waveHeight;
+	private float reach;
+	private boolean hasPrevious;
+	private float previousX, previousY, previousRotation, previousAmplitude;
+
+	/**
+	 * @param bounds     - the region that is ever drawn, the dirty rect never exceeds it
+	 * @param pivotX     - x of the water rotation pivot
+	 * @param pivotY     - y of the water rotation pivot
+	 * @param waveHeight - height of the wave texture rows
+	 */
+	public void setGeometry(Rect bounds, float pivotX, float pivotY, float waveHeight) {
+		this.bounds.set(bounds);
+		this.pivotX = pivotX;
+		this.pivotY = pivotY;
+		this.waveHeight = waveHeight;
+
+		// Half length of the band, long enough to cross the bounds in any rotation
+		float dx = Math.max(Math.abs(bounds.left - pivotX), Math.abs(bounds.right - pivotX));
+		float dy = Math.max(Math.abs(bounds.top - pivotY), Math.abs(bounds.bottom - pivotY));
+		this.reach = (float) Math.sqrt(dx * dx + dy * dy);
+
+		reset();
+	}
+
+	/**
+	 * Forget the previous frame, the next dirty rect will cover the whole bounds
+	 */
+	public void reset() {
+		hasPrevious = false;
+	}
+
+	/**
+	 * @return half length of the band, long enough to cross the bounds in any rotation
+	 */
+	public float getReach() {
+		return reach;
+	}
+
+	/**
+	 * Compute the region changed by a frame and remember the frame for the next call
+	 *
+	 * @param state     - the frame about to be drawn
+	 * @param amplitude - the biggest height of the water surface in the frame, in pixels
+	 * @param out       - the dirty rect, empty if the frame changes nothing
+	 */
+	public void computeDirty(FrameState state, float amplitude, Rect out) {
+		float x = state.getWaveX();
+		float y = state.getWaveY();
+		float rotation = state.getWaterRotation();
+
+		if (!hasPrevious) {
+			out.set(bounds);
+		} else if (x == previousX && y == previousY && rotation == previousRotation && amplitude == 0 && previousAmplitude == 0) {
+			out.setEmpty();
+		} else {
+			// Rows between the two bands switch from one edge color to the other, cover the whole span
+			float spanTop = Math.min(y, previousY);
+			float spanBottom = Math.max(y, previousY) + waveHeight;
+			float spanAmplitude = Math.max(amplitude, previousAmplitude);
+
+			rotatedBand(spanTop, spanBottom, previousRotation, spanAmplitude);
+			float left = band[0], top = band[1], right = band[2], bottom = band[3];
+
+			rotatedBand(spanTop, spanBottom, rotation, spanAmplitude);
+			left = Math.min(left, band[0]);
+			top = Math.min(top, band[1]);
+			right = Math.max(right, band[2]);
+			bottom = Math.max(bottom, band[3]);
+
+			out.set((int) Math.floor(left) - EDGE_PADDING, (int) Math.floor(top) - EDGE_PADDING, (int) Math.ceil(right) + EDGE_PADDING, (int) Math.ceil(bottom) + EDGE_PADDING);
+			if (!out.intersect(bounds)) {
+				out.setEmpty();
+			}
+		}
+
+		hasPrevious = true;
+		previousX = x;
+		previousY = y;
+		previousRotation = rotation;
+		previousAmplitude = amplitude;
+	}
+
+	/**
+	 * Bounding box of the rows between top and bottom, widened by the amplitude and rotated around the pivot, into {@link #band}
+	 */
+	private void rotatedBand(float top, float bottom, float rotation, float amplitude) {
+		double radians = Math.toRadians(rotation);
+		float cos = (float) Math.cos(radians);
+		float sin = (float) Math.sin(radians);
+
+		band[0] = Float.MAX_VALUE;
+		band[1] = Float.MAX_VALUE;
+		band[2] = -Float.MAX_VALUE;
+		band[3] = -Float.MAX_VALUE;
+
+		// The four corners of the band, relative to the pivot
+		for (int i = 0; i < 4; i++) {
+			float cx = (i & 1) == 0 ? -reach : reach;
+			float cy = ((i & 2) == 0 ? top - amplitude : bottom + amplitude) - pivotY;
+			float rx = pivotX + cx * cos - cy * sin;
+			float ry = pivotY + cx * sin + cy * cos;
+
+			band[0] = Math.min(band[0], rx);
+			band[1] = Math.min(band[1], ry);
+			band[2] = Math.max(band[2], rx);
+			band[3] = Math.max(band[3], ry);
+		}
+	}
+}
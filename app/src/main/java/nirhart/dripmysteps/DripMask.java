@@ -0,0 +1,233 @@
+package nirhart.dripmysteps;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Shader;
+
+/**
+ * The drip glyph rasterized once into an alpha mask.
+ * Every frame the mask is drawn with the wave shader, which fills it inside the glyph bounds only,
+ * instead of rasterizing and shading the glyph with drawText.
+ * The water is drawn in vertical strips of the rotated water frame, each a run of {@link WaterSurface} columns on a
+ * straight line, shifted and sheared along it. A surface that is flat or straight where the dirty rect crosses it,
+ * as it is at rest, is filled in a single draw, and only the strips crossing the dirty rect are drawn.
+ * Should be used from the UI thread.
+ */
+public class DripMask {
+
+	// Surfaces flatter than that are drawn flat, in pixels
+	private static final float FLAT_AMPLITUDE = 1;
+	// Columns closer than that to a straight line are drawn as one strip, in pixels
+	private static final float STRAIGHT_TOLERANCE = 1;
+
+	private final Rect bounds = new Rect();
+	private final Rect glyphBounds = new Rect();
+	private final Rect screenClip = new Rect();
+	private final Matrix waterMatrix = new Matrix();
+	private final Matrix shaderMatrix = new Matrix();
+	private final Matrix clipMatrix = new Matrix();
+	// Corners of the clip in the water frame
+	private final float[] clipCorners = new float[8];
+	private final Paint wavePaint = new Paint();
+	private Bitmap mask;
+	private float pivotX, pivotY;
+	private float reach;
+
+	/**
+	 * Rasterize the glyph into the mask, does nothing if the glyph is already rasterized with the same size and position
+	 *
+	 * @param textPaint - the paint the glyph would be drawn with, its shader is ignored
+	 * @param glyph     - the glyph to rasterize
+	 * @param x         - x position the glyph would be drawn at, according to the paint's alignment
+	 * @param y         - baseline the glyph would be drawn at
+	 */
+	public void build(Paint textPaint, String glyph, float x, float y) {
+		Paint rasterPaint = new Paint(textPaint);
+		rasterPaint.setShader(null);
+		rasterPaint.setTextAlign(Paint.Align.LEFT);
+		rasterPaint.getTextBounds(glyph, 0, glyph.length(), glyphBounds);
+
+		// Move the bounds to where the glyph is drawn on the screen
+		float left = x;
+		if (textPaint.getTextAlign() == Paint.Align.CENTER) {
+			left -= textPaint.measureText(glyph) / 2;
+		} else if (textPaint.getTextAlign() == Paint.Align.RIGHT) {
+			left -= textPaint.measureText(glyph);
+		}
+
+		int screenLeft = (int) left + glyphBounds.left;
+		int screenTop = (int) y + glyphBounds.top;
+
+		if (mask != null && bounds.left == screenLeft && bounds.top == screenTop && bounds.width() == glyphBounds.width() && bounds.height() == glyphBounds.height())
+			return;
+
+		release();
+
+		bounds.set(screenLeft, screenTop, screenLeft + glyphBounds.width(), screenTop + glyphBounds.height());
+		if (bounds.isEmpty())
+			return;
+
+		mask = Bitmap.createBitmap(bounds.width(), bounds.height(), Bitmap.Config.ALPHA_8);
+		new Canvas(mask).drawText(glyph, -glyphBounds.left + (left - (int) left), -glyphBounds.top + (y - (int) y), rasterPaint);
+	}
+
+	/**
+	 * @param pivotX - x of the water rotation pivot
+	 * @param pivotY - y of the water rotation pivot
+	 * @param reach  - half length of the water surface, long enough to cross the glyph in any rotation
+	 */
+	public void setSurface(float pivotX, float pivotY, float reach) {
+		this.pivotX = pivotX;
+		this.pivotY = pivotY;
+		this.reach = reach;
+	}
+
+	/**
+	 * Draw the drip filled with the shader
+	 *
+	 * @param canvas   - the canvas to draw on
+	 * @param shader   - the water shader, in water coordinates (before the rotation), its local matrix is restored after drawing
+	 * @param dirty    - the part of the canvas to update, nothing outside of it is drawn
+	 * @param rotation - rotation of the water in degrees, around the pivot
+	 * @param heights  - heights of the surface columns in pixels, positive is up
+	 * @param columns  - number of columns, less than 2 or all of them under a pixel draws a flat surface
+	 */
+	public void draw(Canvas canvas, Shader shader, Rect dirty, float rotation, float[] heights, int columns) {
+		if (mask == null || !screenClip.setIntersect(dirty, bounds))
+			return;
+
+		waterMatrix.reset();
+		shader.getLocalMatrix(waterMatrix);
+		wavePaint.setShader(shader);
+
+		canvas.save();
+		canvas.clipRect(screenClip);
+		if (columns < 2 || WaterSurface.getAmplitude(heights, columns) < FLAT_AMPLITUDE) {
+			// Within a pixel of flat, a single pass draws the same
+			drawWater(canvas, shader, rotation, 0, 0);
+		} else {
+			drawStrips(canvas, shader, rotation, heights, columns);
+		}
+		canvas.restore();
+
+		shader.setLocalMatrix(waterMatrix);
+	}
+
+	/**
+	 * Each strip is a run of columns on a straight line, the water shifted up and sheared along the line, clipped to the
+	 * strip, in the water frame. Only the strips crossing the clip are drawn, and a single run across the whole clip needs
+	 * no strip clip at all.
+	 */
+	private void drawStrips(Canvas canvas, Shader shader, float rotation, float[] heights, int columns) {
+		float stripWidth = 2 * reach / columns;
+		float left = pivotX - reach;
+		float top = pivotY - 2 * reach;
+		float bottom = pivotY + 2 * reach;
+
+		// Turn the clip back into the water frame, the strips between its leftmost and rightmost corners cross it
+		clipCorners[0] = clipCorners[6] = screenClip.left;
+		clipCorners[1] = clipCorners[3] = screenClip.top;
+		clipCorners[2] = clipCorners[4] = screenClip.right;
+		clipCorners[5] = clipCorners[7] = screenClip.bottom;
+		clipMatrix.setRotate(-rotation, pivotX, pivotY);
+		clipMatrix.mapPoints(clipCorners);
+		float minX = Math.min(Math.min(clipCorners[0], clipCorners[2]), Math.min(clipCorners[4], clipCorners[6]));
+		float maxX = Math.max(Math.max(clipCorners[0], clipCorners[2]), Math.max(clipCorners[4], clipCorners[6]));
+		int first = getColumn(minX, left, stripWidth, columns);
+		int last = getColumn(maxX, left, stripWidth, columns);
+
+		for (int i = first; i <= last; ) {
+			int end = getStraightEnd(heights, i, last, stripWidth);
+			float slope = end > i ? (heights[end] - heights[i]) / ((end - i) * stripWidth) : 0;
+			// The height of the line under the pivot, the shear is around the pivot
+			float height = heights[i] + slope * (pivotX - (left + (i + 0.5f) * stripWidth));
+
+			if (i == first && end == last) {
+				// The clip is within the strip already
+				drawWater(canvas, shader, rotation, height, slope);
+				return;
+			}
+
+			canvas.save();
+			// The outer strips extend to infinity, so a rounding gap never shows at the sides
+			float stripLeft = i == 0 ? left - reach : left + i * stripWidth;
+			float stripRight = end == columns - 1 ? left + 3 * reach : left + (end + 1) * stripWidth;
+			canvas.rotate(rotation, pivotX, pivotY);
+			canvas.clipRect(stripLeft, top, stripRight, bottom);
+			// The clip stays rotated, the mask is drawn upright
+			canvas.rotate(-rotation, pivotX, pivotY);
+			drawWater(canvas, shader, rotation, height, slope);
+			canvas.restore();
+			i = end + 1;
+		}
+	}
+
+	/**
+	 * Follow the columns from start while a line from the start column passes close enough to all of them,
+	 * narrowing the slopes such a line can have at every column
+	 *
+	 * @return the last column of the run, at most last
+	 */
+	private static int getStraightEnd(float[] heights, int start, int last, float stripWidth) {
+		float minSlope = Float.NEGATIVE_INFINITY;
+		float maxSlope = Float.POSITIVE_INFINITY;
+		for (int i = start + 1; i <= last; i++) {
+			float distance = (i - start) * stripWidth;
+			minSlope = Math.max(minSlope, (heights[i] - STRAIGHT_TOLERANCE - heights[start]) / distance);
+			maxSlope = Math.min(maxSlope, (heights[i] + STRAIGHT_TOLERANCE - heights[start]) / distance);
+			float slope = (heights[i] - heights[start]) / distance;
+			// The strip is drawn along the line to its last column, which has to suit every column before it
+			if (slope < minSlope || slope > maxSlope)
+				return i - 1;
+		}
+		return last;
+	}
+
+	/**
+	 * @return the column of the strip at x in the water frame, the outer strips extend to infinity
+	 */
+	private static int getColumn(float x, float left, float stripWidth, int columns) {
+		return Math.max(0, Math.min(columns - 1, (int) Math.floor((x - left) / stripWidth)));
+	}
+
+	/**
+	 * Draw the mask filled with the water shifted up by height, sheared up by slope and rotated around the pivot.
+	 * An alpha mask drawn with a shader takes the shader's colors, so the glyph is filled in a single pass.
+	 *
+	 * @param height - shift under the pivot, in pixels
+	 * @param slope  - pixels up per pixel right of the pivot
+	 */
+	private void drawWater(Canvas canvas, Shader shader, float rotation, float height, float slope) {
+		// Move the shader rather than the canvas, so the mask stays in place
+		shaderMatrix.set(waterMatrix);
+		shaderMatrix.postTranslate(0, -height);
+		shaderMatrix.postSkew(0, -slope, pivotX, 0);
+		shaderMatrix.postRotate(rotation, pivotX, pivotY);
+		shader.setLocalMatrix(shaderMatrix);
+		canvas.drawBitmap(mask, bounds.left, bounds.top, wavePaint);
+	}
+
+	/**
+	 * @return the bounds of the glyph on the screen
+	 */
+	public Rect getBounds() {
+		return bounds;
+	}
+
+	/**
+	 * @return bytes held by the mask
+	 */
+	public int getBytes() {
+		return mask == null ? 0 : mask.getByteCount();
+	}
+
+	public void release() {
+		mask = null;
+		// The shader holds the wave bitmap, let it go with the rest
+		wavePaint.setShader(null);
+		bounds.setEmpty();
+	}
+}
@@ -0,0 +1,134 @@
+package nirhart.dripmysteps;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.os.Build;
+import android.os.Trace;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process wide frame time and jank instrumentation, read by the debug screen in the settings.
+ * Every histogram is recorded from a single thread: the draw and canvas ones from the UI thread, the tick from the
+ * simulation thread, and the Fitness fetch from the main thread the results are delivered on.
+ * The sections are also marked for systrace, on devices that support it.
+ */
+public class DripMetrics {
+
+	/**
+	 * A lockCanvas that takes longer than this waited for the compositor
+	 */
+	public static final long LOCK_BLOCKED_NANOS = TimeUnit.MILLISECONDS.toNanos(4);
+
+	/**
+	 * Frames that locked a canvas, the skipped ones are only counted in {@link #FRAMES_SKIPPED}
+	 */
+	public static final LatencyHistogram FRAME_DRAW = new LatencyHistogram("Frame draw");
+	public static final LatencyHistogram SIMULATION_TICK = new LatencyHistogram("Simulation tick");
+	public static final LatencyHistogram CANVAS_LOCK = new LatencyHistogram("Canvas lock");
+	public static final LatencyHistogram CANVAS_POST = new LatencyHistogram("Canvas post");
+	public static final LatencyHistogram BITMAP_REBUILD = new LatencyHistogram("Bitmap rebuild");
+	public static final LatencyHistogram FITNESS_FETCH = new LatencyHistogram("Fitness fetch");
+
+	private static final LatencyHistogram[] HISTOGRAMS = {FRAME_DRAW, SIMULATION_TICK, CANVAS_LOCK, CANVAS_POST, BITMAP_REBUILD, FITNESS_FETCH};
+
+	public static final AtomicLong STEPS_CHECKS = new AtomicLong();
+	public static final AtomicLong CANVAS_LOCKS_BLOCKED = new AtomicLong();
+	public static final AtomicLong CANVAS_LOCKS_FAILED = new AtomicLong();
+	public static final AtomicLong FRAMES_SKIPPED = new AtomicLong();
+
+	/**
+	 * Mark the start of a section for systrace, must be ended on the same thread
+	 */
+	public static void beginSection(String name) {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+			beginTrace(name);
+		}
+	}
+
+	public static void endSection() {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+			endTrace();
+		}
+	}
+
+	/**
+	 * @return a readable report of all the counters and the percentiles of all the histograms
+	 */
+	public static String dump() {
+		StringBuilder sb = new StringBuilder();
+		for (LatencyHistogram histogram : HISTOGRAMS) {
+			sb.append(String.format(Locale.US, "%s: n=%d p50=%.2fms p95=%.2fms p99=%.2fms max=%.2fms\n",
+					histogram.getName(),
+					histogram.getCount(),
+					toMillis(histogram.getPercentile(50)),
+					toMillis(histogram.getPercentile(95)),
+					toMillis(histogram.getPercentile(99)),
+					toMillis(histogram.getMaxNanos())));
+		}
+
+		sb.append("Steps checks: ").append(STEPS_CHECKS.get()).append('\n');
+		sb.append("Canvas locks blocked: ").append(CANVAS_LOCKS_BLOCKED.get()).append('\n');
+		sb.append("Canvas locks failed: ").append(CANVAS_LOCKS_FAILED.get()).append('\n');
+		sb.append("Frames skipped, nothing moved: ").append(FRAMES_SKIPPED.get()).append('\n');
+		return sb.toString();
+	}
+
+	/**
+	 * Write the report and the raw bucket counts to a new file in the app's external files,
+	 * or the internal files when there is no external storage
+	 *
+	 * @return the file written
+	 */
+	public static File dumpToFile(Context context) throws IOException {
+		File dir = context.getExternalFilesDir(null);
+		if (dir == null) {
+			dir = context.getFilesDir();
+		}
+
+		StringBuilder sb = new StringBuilder(dump());
+		long[][] counts = new long[HISTOGRAMS.length][LatencyHistogram.BUCKETS];
+		sb.append("\nbucket upper us");
+		for (int h = 0; h < HISTOGRAMS.length; h++) {
+			HISTOGRAMS[h].copyCounts(counts[h]);
+			sb.append(',').append(HISTOGRAMS[h].getName());
+		}
+		sb.append('\n');
+		for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+			sb.append(LatencyHistogram.getUpperMicros(i));
+			for (long[] histogramCounts : counts) {
+				sb.append(',').append(histogramCounts[i]);
+			}
+			sb.append('\n');
+		}
+
+		File file = new File(dir, "drip-metrics-" + System.currentTimeMillis() + ".txt");
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(sb.toString().getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	private static double toMillis(long nanos) {
+		return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+	private static void beginTrace(String name) {
+		Trace.beginSection(name);
+	}
+
+	@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+	private static void endTrace() {
+		Trace.endSection();
+	}
+}
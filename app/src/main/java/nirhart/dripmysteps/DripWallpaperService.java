@@ -3,22 +3,16 @@ package nirhart.dripmysteps;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.BitmapShader;
 import android.graphics.Canvas;
 import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Point;
 import android.graphics.Rect;
-import android.graphics.RectF;
 import android.graphics.Shader;
-import android.graphics.Typeface;
-import android.graphics.drawable.Drawable;
-import android.os.Build;
-import android.os.Bundle;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
-import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.service.wallpaper.WallpaperService;
 import android.util.TypedValue;
@@ -27,39 +21,58 @@ import android.view.Surface;
 import android.view.SurfaceHolder;
 import android.view.WindowManager;
 
-import com.google.android.gms.common.ConnectionResult;
-import com.google.android.gms.common.api.GoogleApiClient;
-
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 public class DripWallpaperService extends WallpaperService implements SharedPreferences.OnSharedPreferenceChangeListener {
 
-	final static long STEPS_CHECK_INTERVAL = TimeUnit.MINUTES.toMillis(1);
-	private final static int FOLLOW_SCREEN_ROTATION_FACTOR = 40; // 1 means follow immediately, bigger number means slowly follow the screen rotation
-	private static final double MAX_ANGLE_CHANGE_IN_FRAME = 1.5;
+	// The fill is extrapolated between counts by FillPredictor, so the count is fetched rarely
+	final static long STEPS_CHECK_INTERVAL = TimeUnit.MINUTES.toMillis(5);
 	private static final String TIDE_LEVEL = "tide_level";
 	private static final String STEPS_GOAL = "steps_goal";
 	private static final String STEPS_GOAL_DEFAULT = "7500";
 	private static final String LOW_LEVEL_DEFAULT = "0";
 	private static final String TIDE_LEVEL_DEFAULT = "3";
 	private static final String LOW_LEVEL = "low_level";
-	private final ExecutorService ex;
-	private int stepsGoal;
+	private static final String FRAME_RATE = "frame_rate";
+	private static final String FRAME_RATE_DEFAULT = "60";
+	private static final String POWER_MODE = "power_mode";
+	private static final String POWER_MODE_DEFAULT = "1";
+	private static final String RECORD_INPUT = "record_input";
+	private static final String DRIP_GLYPH = "\uE900";
+	// The transparent y part of wave.png
+	private static final float WAVE_TRANSPARENT_TOP = 100;
+	private final HandlerThread simulationThread;
+	private SharedResources sharedResources;
+	private volatile int stepsGoal;
+	private int targetFps;
+	private int powerMode;
 	private float low, tide;
-	private long lastStepsCheck;
 	private Display display;
+	// Replaced by a virtual clock when the engine is driven off device
+	Clock clock = Clock.SYSTEM;
 
 	public DripWallpaperService() {
-		// Single thread pool with 1 min time of idle thread
-		this.ex = new ThreadPoolExecutor(1, 1, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<Runnable>());
+		// Single background thread for the simulation ticks of all the engines
+		this.simulationThread = new HandlerThread("DripSimulation");
+		this.simulationThread.start();
+	}
+
+	@Override
+	public void onCreate() {
+		super.onCreate();
+		sharedResources = new SharedResources(getApplicationContext());
 	}
 
 	@Override
 	public Engine onCreateEngine() {
+		loadSettings();
+		return new DripWallpaperEngine();
+	}
 
+	/**
+	 * Read the preferences the engines are created with
+	 */
+	void loadSettings() {
 		this.display = ((WindowManager) getApplicationContext().getSystemService(Context.WINDOW_SERVICE)).getDefaultDisplay();
 		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(getApplicationContext());
 		prefs.registerOnSharedPreferenceChangeListener(this);
@@ -69,16 +82,23 @@ public class DripWallpaperService extends WallpaperService implements SharedPref
 		low = -TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, Float.parseFloat(prefs.getString(LOW_LEVEL, LOW_LEVEL_DEFAULT)), getResources().getDisplayMetrics());
 
 		stepsGoal = Integer.parseInt(prefs.getString(STEPS_GOAL, STEPS_GOAL_DEFAULT));
-
-		return new DripWallpaperEngine();
+		targetFps = Integer.parseInt(prefs.getString(FRAME_RATE, FRAME_RATE_DEFAULT));
+		powerMode = Integer.parseInt(prefs.getString(POWER_MODE, POWER_MODE_DEFAULT));
+		sharedResources.setRecordInput(prefs.getBoolean(RECORD_INPUT, false));
+
+		// Start from the last known count, so the first frame already shows the right fill
+		StepsRepository stepsRepository = sharedResources.getStepsRepository();
+		stepsRepository.setGoal(stepsGoal);
+		stepsRepository.restoreSnapshot();
 	}
 
 	@Override
 	public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
 		switch (key) {
 			case STEPS_GOAL:
+				// Engines map the cached count to the new goal on their next tick
 				stepsGoal = Integer.parseInt(sharedPreferences.getString(key, STEPS_GOAL_DEFAULT));
-				lastStepsCheck = 0;
+				sharedResources.getStepsRepository().setGoal(stepsGoal);
 				break;
 			case TIDE_LEVEL:
 				tide = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, Float.parseFloat(sharedPreferences.getString(key, TIDE_LEVEL_DEFAULT)), getResources().getDisplayMetrics());
@@ -86,13 +106,41 @@ public class DripWallpaperService extends WallpaperService implements SharedPref
 			case LOW_LEVEL_DEFAULT:
 				low = -TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, Float.parseFloat(sharedPreferences.getString(key, LOW_LEVEL_DEFAULT)), getResources().getDisplayMetrics());
 				break;
+			case FRAME_RATE:
+				targetFps = Integer.parseInt(sharedPreferences.getString(key, FRAME_RATE_DEFAULT));
+				break;
+			case POWER_MODE:
+				// Engines pick the new frame budget on their next frame
+				powerMode = Integer.parseInt(sharedPreferences.getString(key, POWER_MODE_DEFAULT));
+				break;
+			case RECORD_INPUT:
+				sharedResources.setRecordInput(sharedPreferences.getBoolean(key, false));
+				break;
+		}
+	}
+
+	@Override
+	public void onTrimMemory(int level) {
+		super.onTrimMemory(level);
+		ResourceManager resourceManager = sharedResources.getResourceManager();
+		if (resourceManager != null) {
+			resourceManager.onTrimMemory(level);
+		}
+	}
+
+	@Override
+	public void onLowMemory() {
+		super.onLowMemory();
+		ResourceManager resourceManager = sharedResources.getResourceManager();
+		if (resourceManager != null) {
+			resourceManager.onLowMemory();
 		}
 	}
 
 	@Override
 	public void onDestroy() {
 		PreferenceManager.getDefaultSharedPreferences(getApplicationContext()).unregisterOnSharedPreferenceChangeListener(this);
-		ex.shutdown();
+		simulationThread.quit();
 		super.onDestroy();
 	}
 
@@ -115,45 +163,76 @@ public class DripWallpaperService extends WallpaperService implements SharedPref
 		}
 	}
 
-	public class DripWallpaperEngine extends Engine implements SensorHelper.OnAngleChangedListener, GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener, StepsHelper.OnStepsCountFetchedListener {
+	public class DripWallpaperEngine extends Engine implements StepSource.OnStepsCountFetchedListener, FrameScheduler.OnFrameListener, ResourceManager.OnResourcesReleasedListener {
 
 		private final Runnable drawRunner;
 		private final Runnable backgroundRunner;
 		private final Handler handler;
+		private final FrameScheduler frameScheduler;
+		private final SimulationTicker simulationTicker;
 		private final Matrix shaderMatrix;
-		private final float maskXStep;
-		private float zeroLevel, topLevel;
-		private float offsetY;
+		private final DripSimulation simulation;
+		private final FrameExchange frames;
+		private final ResourceManager resourceManager;
+		private final StepsRepository stepsRepository;
+		private final SensorHelper sensorHelper;
+		private final PowerStateMonitor powerStateMonitor;
+		// Heights of the water surface for the frame being drawn, used only from the UI thread
+		private final float[] surfaceHeights = new float[WaterSurface.MAX_COLUMNS];
+		private int surfaceColumns;
 		private int rotation;
 		private int lastOrientation = -1;
 		private Point locationOfDrip;
-		private double phoneAngle = 0;
 		private boolean visible;
-		private Drawable wave;
 		private int width, height;
 		private BitmapShader shader;
 		private Paint paint;
-		private float maskX, maskY;
-		private float maskYStep;
-		private float waterRotation;
 		private Bitmap backgroundBitmap;
+		private Rect surfaceRect;
 		private Rect textRect;
+		private Rect dirtyRect;
+		private DripMask dripMask;
+		private DirtyRegionTracker dirtyTracker;
 		private boolean redrawEverything;
-		private SensorHelper sensorHelper;
-		private AuthHelper authHelper;
-		private StepsHelper stepsHelper;
-		private double finalAngle = 0;
+		private boolean resourcesReleased;
+		private volatile long frameTimeNanos;
 
 		public DripWallpaperEngine() {
+			sharedResources.acquire(this);
+			resourceManager = sharedResources.getResourceManager();
+			stepsRepository = sharedResources.getStepsRepository();
+			sensorHelper = sharedResources.getSensorHelper();
+			powerStateMonitor = sharedResources.getPowerStateMonitor();
 			initPaint();
 
 			handler = new Handler(Looper.getMainLooper());
-			maskXStep = getResources().getDimension(R.dimen.mask_x_step);
-			maskYStep = getResources().getDimension(R.dimen.mask_y_step);
+			frameScheduler = new FrameScheduler(this);
+			frameScheduler.setTargetFps(targetFps);
 			redrawEverything = true;
 			shaderMatrix = new Matrix();
+			frames = new FrameExchange();
+			surfaceRect = new Rect();
+			dirtyRect = new Rect();
+			dripMask = new DripMask();
+			dirtyTracker = new DirtyRegionTracker();
 
 			createShader();
+			DripAnimator animator = new DripAnimator(getResources().getDimension(R.dimen.mask_x_step), getResources().getDimension(R.dimen.mask_y_step), resourceManager.getWaveWidth());
+			// The surface measures its cost on the service clock, so a replay on a virtual clock keeps the same resolution
+			simulation = new DripSimulation(animator, new FillPredictor(), new WaterSurface(WaterSurface.MAX_COLUMNS, clock), new DripSimulation.AngleSource() {
+				@Override
+				public boolean hasAngle() {
+					return sensorHelper.hasAngle();
+				}
+
+				@Override
+				public double getAngle() {
+					// The sensor thread publishes only the latest filtered angle
+					return sensorHelper.getAngle();
+				}
+			});
+			simulation.setGoal(stepsGoal);
+			resourceManager.addListener(this);
 			this.drawRunner = new Runnable() {
 				@Override
 				public void run() {
@@ -165,36 +244,26 @@ public class DripWallpaperService extends WallpaperService implements SharedPref
 			this.backgroundRunner = new Runnable() {
 				@Override
 				public void run() {
+					DripMetrics.beginSection("DripSimulationTick");
+					long start = System.nanoTime();
 					checkSteps();
+					simulation.setGoal(stepsGoal);
+					simulation.setTideBounds(tide, low);
+					// Publish the sea x/y/rotation values, the UI thread applies them to the shader
+					simulation.tick(frameTimeNanos, frames.getBack());
+					frames.publish();
 					// Follow screen rotation outside the UI Thread
-					followScreenRotation();
-					// Set the sea shader according to its x/y/rotation values
-					shaderMatrix.setTranslate(maskX, maskY + offsetY);
-					shaderMatrix.postRotate(waterRotation, width / 2, height / 2);
-					shader.setLocalMatrix(shaderMatrix);
-
-					// Move the wave horizontally
-					maskX += maskXStep;
-					if (maskX > wave.getIntrinsicWidth())
-						maskX -= wave.getIntrinsicWidth();
-
-					// Move the wave vertically
-					maskY += maskYStep;
-					if (maskY > tide) {
-						maskYStep *= -1;
-					}
-
-					if (maskY < low) {
-						maskYStep *= -1;
+					if (!simulation.isRotationSettled()) {
+						refreshOrientation();
 					}
+					DripMetrics.SIMULATION_TICK.record(System.nanoTime() - start);
+					DripMetrics.endSection();
 				}
 			};
 
-			startListeners();
-		}
+			simulationTicker = new SimulationTicker(simulationThread.getLooper(), backgroundRunner);
 
-		public void setOffsetY(float offsetY) {
-			this.offsetY = offsetY - 100; // 100 is the transparent y part of wave.png
+			startListeners();
 		}
 
 		/**
@@ -204,45 +273,46 @@ public class DripWallpaperService extends WallpaperService implements SharedPref
 		@SuppressWarnings("ResourceType")
 		public void refreshOrientation() {
 			if (lastOrientation != display.getRotation()) {
-				// Enforce new steps check in order to calculate the new yOffset of sea level
-				lastStepsCheck = 0;
 				lastOrientation = display.getRotation();
 				rotation = getRotation(lastOrientation);
+				simulation.setScreenRotation(rotation);
 			}
 		}
 
-		@Override
-		public void onConnected(Bundle bundle) {
-		}
-
-		@Override
-		public void onConnectionSuspended(int i) {
-		}
-
-		@Override
-		public void onConnectionFailed(ConnectionResult connectionResult) {
-		}
-
 		@Override
 		public void onStepsCountFetched(int count) {
-			float percent = (float) count / (float) stepsGoal;
-
-			if (percent > 1)
-				percent = 1;
-
-			// Allow a minimum fill of 5% so the drip will not be empty
-			if (percent < 0.05)
-				percent = 0.05f;
-
-			// Change the sea level according to the new steps
-			setOffsetY((int) (zeroLevel + percent * (topLevel - zeroLevel)));
+			// The sea level moves toward the new count on the next ticks
+			simulation.getFillPredictor().onCount(count, clock.nanoTime());
 		}
 
 		private void initPaint() {
 			this.paint = new Paint();
 			this.paint.setTextAlign(Paint.Align.CENTER);
 			this.paint.setTextSize(getResources().getDimension(R.dimen.drip_size));
-			this.paint.setTypeface(Typeface.createFromAsset(getAssets(), "dripfont.ttf"));
+			this.paint.setTypeface(resourceManager.getTypeface());
+		}
+
+		@Override
+		public void onResourcesReleased() {
+			// Drop the references so the memory can be freed, everything is rebuilt on the next visible frame
+			backgroundBitmap = null;
+			shader = null;
+			paint.setShader(null);
+			paint.setTypeface(null);
+			dripMask.release();
+			resourcesReleased = true;
+			redrawEverything = true;
+		}
+
+		/**
+		 * Rebuild the resources dropped by {@link #onResourcesReleased()}
+		 */
+		private void restoreResources() {
+			if (resourcesReleased) {
+				paint.setTypeface(resourceManager.getTypeface());
+				createShader();
+				resourcesReleased = false;
+			}
 		}
 
 		@Override
@@ -252,9 +322,11 @@ public class DripWallpaperService extends WallpaperService implements SharedPref
 			if (visible) {
 				startListeners();
 				redrawEverything = true;
-				lastStepsCheck = 0;
+				frameScheduler.setTargetFps(targetFps);
 				doFrame();
 			} else {
+				// Drop frames while the surface is not visible
+				frameScheduler.stop();
 				stopListeners();
 			}
 		}
@@ -264,7 +336,19 @@ public class DripWallpaperService extends WallpaperService implements SharedPref
 			super.onSurfaceDestroyed(holder);
 
 			this.visible = false;
+			frameScheduler.stop();
+			stopListeners();
+		}
+
+		@Override
+		public void onDestroy() {
+			frameScheduler.stop();
+			simulationTicker.cancel();
+			handler.removeCallbacks(drawRunner);
 			stopListeners();
+			resourceManager.removeListener(this);
+			sharedResources.release(this);
+			super.onDestroy();
 		}
 
 		@Override
@@ -273,59 +357,204 @@ public class DripWallpaperService extends WallpaperService implements SharedPref
 
 			this.width = width;
 			this.height = height;
-			// Enforce new steps check in order to calculate the new yOffset of sea level
-			lastStepsCheck = 0;
 			refreshOrientation();
 			redrawEverything = true;
 			doFrame();
 		}
 
 		private void draw() {
+			DripMetrics.beginSection("DripDraw");
+			long start = System.nanoTime();
 			SurfaceHolder holder = getSurfaceHolder();
 			Canvas canvas = null;
 			try {
 				// redrawEverything means that the whole screen is dirty, reset all params and redraw everything
 				if (redrawEverything) {
+					DripMetrics.beginSection("DripRebuild");
+					long rebuildStart = System.nanoTime();
 					initDimensParam(width, height);
-					canvas = holder.lockCanvas();
+					DripMetrics.BITMAP_REBUILD.record(System.nanoTime() - rebuildStart);
+					DripMetrics.endSection();
+				}
+
+				// Acquired after the rebuild, which may acquire the first state to start it from the sea level
+				FrameState state = frames.acquire();
+				dirtyTracker.computeDirty(state, copySurface(state), dirtyRect);
+				if (redrawEverything) {
+					dirtyRect.set(surfaceRect);
+					canvas = lockCanvas(holder, null);
+				} else if (dirtyRect.isEmpty()) {
+					// Nothing moved since the previous frame
+					DripMetrics.FRAMES_SKIPPED.incrementAndGet();
+					return;
 				} else {
-					canvas = holder.lockCanvas(textRect);
+					// lockCanvas may grow the rect to what actually needs to be redrawn
+					canvas = lockCanvas(holder, dirtyRect);
 				}
 				if (canvas != null) {
-					draw(canvas);
+					applyFrameState(state);
+					draw(canvas, state, dirtyRect);
+				} else {
+					DripMetrics.CANVAS_LOCKS_FAILED.incrementAndGet();
+					dirtyTracker.reset();
 				}
 			} finally {
 				if (canvas != null) {
+					DripMetrics.beginSection("DripPost");
+					long postStart = System.nanoTime();
 					try {
 						holder.unlockCanvasAndPost(canvas);
 					} catch (Exception ignore) {
 					}
+					DripMetrics.CANVAS_POST.record(System.nanoTime() - postStart);
+					DripMetrics.endSection();
+					// Skipped frames and failed locks would drag the percentiles down, only drawn frames count
+					DripMetrics.FRAME_DRAW.record(System.nanoTime() - start);
 				}
+				DripMetrics.endSection();
 			}
+		}
 
-			if (visible) {
-				doFrame();
+		/**
+		 * Lock the canvas, counting the locks that had to wait for the previous frame to be composited
+		 *
+		 * @param dirty - the part to redraw, null for the whole surface
+		 */
+		private Canvas lockCanvas(SurfaceHolder holder, Rect dirty) {
+			DripMetrics.beginSection("DripLock");
+			long start = System.nanoTime();
+			Canvas canvas = dirty == null ? holder.lockCanvas() : holder.lockCanvas(dirty);
+			long lockNanos = System.nanoTime() - start;
+			DripMetrics.CANVAS_LOCK.record(lockNanos);
+			if (lockNanos > DripMetrics.LOCK_BLOCKED_NANOS) {
+				DripMetrics.CANVAS_LOCKS_BLOCKED.incrementAndGet();
 			}
+			DripMetrics.endSection();
+			return canvas;
 		}
 
+		/**
+		 * Start the vsync paced frames, or draw a single frame if the wallpaper is not visible
+		 */
 		private void doFrame() {
-			handler.post(drawRunner);
-			ex.execute(backgroundRunner);
+			if (visible) {
+				frameScheduler.start();
+			} else {
+				frameTimeNanos = clock.nanoTime();
+				handler.post(drawRunner);
+				simulationTicker.requestTick();
+			}
+		}
+
+		@Override
+		public void onFrame(long frameTimeNanos) {
+			if (frameScheduler.getTargetFps() != targetFps) {
+				frameScheduler.setTargetFps(targetFps);
+			}
+
+			updateFpsCap();
+
+			// Prepare the next frame in the background while this one is drawn
+			this.frameTimeNanos = frameTimeNanos;
+			simulationTicker.requestTick();
+			draw();
+		}
+
+		/**
+		 * Pick the frame budget from what moves on screen, the power mode and the battery
+		 */
+		private void updateFpsCap() {
+			// Read from the published frame, the simulation objects belong to the simulation thread
+			FrameState state = frames.acquire();
+			int activity = FrameRateGovernor.getActivity(!state.isSettled(), sensorHelper.isRotationIdle(), state.isFillSettled(), tide != 0 || low != 0);
+			frameScheduler.setFpsCap(FrameRateGovernor.selectFps(powerMode, activity, powerStateMonitor.getBatteryLevel(), powerStateMonitor.isCharging(), powerStateMonitor.isPowerSaveMode()));
+		}
+
+		/**
+		 * Tick, govern and draw a frame synchronously on the calling thread, for driving the engine without a display
+		 *
+		 * @param frameTimeNanos - time of the frame, on the service clock
+		 */
+		void renderFrame(long frameTimeNanos) {
+			updateFpsCap();
+			this.frameTimeNanos = frameTimeNanos;
+			backgroundRunner.run();
+			draw();
+		}
+
+		/**
+		 * @return the frame rate cap picked for the last frame
+		 */
+		int getFpsCap() {
+			return frameScheduler.getFpsCap();
+		}
+
+		/**
+		 * @return the last published frame, valid until the next frame is drawn
+		 */
+		FrameState getFrameState() {
+			return frames.acquire();
+		}
+
+		/**
+		 * @return the shared accelerometer the engine reads the angle from, to feed it events without a sensor
+		 */
+		SensorHelper getSensorHelper() {
+			return sensorHelper;
+		}
+
+		/**
+		 * @return bytes of the bitmaps the frames are drawn from
+		 */
+		int getBitmapBytes() {
+			return resourceManager.getBackgroundBytes() + resourceManager.getWaveBytes() + dripMask.getBytes();
 		}
 
 		/**
 		 * Call for FitnessAPI if needed
 		 */
 		private void checkSteps() {
-			if (SystemClock.uptimeMillis() - lastStepsCheck > STEPS_CHECK_INTERVAL) {
-				lastStepsCheck = SystemClock.uptimeMillis();
-				stepsHelper.fetchStepsCount();
+			DripMetrics.STEPS_CHECKS.incrementAndGet();
+			// Served from the cache while the last count is fresh
+			stepsRepository.refresh();
+		}
+
+		/**
+		 * Set the sea shader according to the latest published x/y/rotation values
+		 */
+		private void applyFrameState(FrameState state) {
+			// The rotation is applied by the drip mask, together with the surface heights
+			shaderMatrix.setTranslate(state.getWaveX(), state.getWaveY());
+			shader.setLocalMatrix(shaderMatrix);
+		}
+
+		/**
+		 * Scale the water surface heights published with the frame about to be drawn to pixels
+		 *
+		 * @return the biggest height, the dirty rect has to cover it
+		 */
+		private float copySurface(FrameState state) {
+			float[] heights = state.getSurfaceHeights();
+			float scale = 2 * dirtyTracker.getReach();
+			surfaceColumns = state.getSurfaceColumns();
+			for (int i = 0; i < surfaceColumns; i++) {
+				surfaceHeights[i] = heights[i] * scale;
 			}
+			return WaterSurface.getAmplitude(surfaceHeights, surfaceColumns);
 		}
 
-		private void draw(Canvas canvas) {
+		/**
+		 * Draw the frame, only the dirty region of the canvas is updated
+		 */
+		private void draw(Canvas canvas, FrameState state, Rect dirty) {
 			try {
-				canvas.drawBitmap(backgroundBitmap, 0, 0, paint);
+				if (backgroundBitmap.getWidth() == width && backgroundBitmap.getHeight() == height) {
+					// Blit only the dirty part of the cached background
+					canvas.drawBitmap(backgroundBitmap, dirty, dirty, null);
+				} else {
+					// Downgraded background, stretch it over the surface
+					canvas.drawBitmap(backgroundBitmap, null, surfaceRect, paint);
+				}
 				redrawEverything = false;
 			} catch (Exception ignore) {
 				redrawEverything = true;
@@ -333,10 +562,13 @@ public class DripWallpaperService extends WallpaperService implements SharedPref
 			}
 
 			// Draw the drip with the water shader
-			canvas.drawText("\uE900", locationOfDrip.x, locationOfDrip.y, paint);
+			dripMask.draw(canvas, shader, dirty, state.getWaterRotation(), surfaceHeights, surfaceColumns);
 		}
 
 		private void initDimensParam(int width, int height) {
+			restoreResources();
+			surfaceRect.set(0, 0, width, height);
+
 			int halfWidth = width / 2;
 			int halfHeight = height / 2;
 
@@ -352,163 +584,57 @@ public class DripWallpaperService extends WallpaperService implements SharedPref
 			}
 
 			// Get text bounds to limit the sea level from bottom to top
-			paint.getTextBounds("\uE900", 0, 1, textRect);
+			paint.getTextBounds(DRIP_GLYPH, 0, 1, textRect);
 			textRect.offsetTo(halfWidth - textRect.width() / 2, halfHeight - textRect.height() / 2);
 
-			zeroLevel = textRect.bottom;
-			topLevel = textRect.top;
+			// Rasterize the drip once for this size, the mask is kept until the surface changes
+			dripMask.build(paint, DRIP_GLYPH, locationOfDrip.x, locationOfDrip.y);
+			dirtyTracker.setGeometry(dripMask.getBounds(), width / 2, height / 2, resourceManager.getWaveHeight());
+			dripMask.setSurface(width / 2, height / 2, dirtyTracker.getReach());
 
-			if (offsetY == 0) {
-				setOffsetY(zeroLevel);
-			}
+			simulation.setSeaBounds(textRect.bottom - WAVE_TRANSPARENT_TOP, textRect.top - WAVE_TRANSPARENT_TOP);
 
-			// Redraw the bitmap if needed
-			if (backgroundBitmap != null && !backgroundBitmap.isRecycled() && (backgroundBitmap.getWidth() != width || backgroundBitmap.getHeight() != height)) {
-				backgroundBitmap.recycle();
+			// Map the known count right away, so this frame already shows the right fill
+			simulation.applyFill();
+
+			// Nothing was simulated yet, start from the sea level instead of the top of the surface.
+			// The acquired state belongs to the UI thread, the simulation thread never writes it.
+			FrameState state = frames.acquire();
+			if (state.getFrameTimeNanos() == 0) {
+				state.set(0, simulation.getOffsetY(), 0, false, false, 0);
 			}
 
 			buildBitmap(width, height);
 		}
 
 		/**
-		 * Build the background bitmap to fit canvas width
+		 * Get the background bitmap that fits the canvas size, the bitmap is shared and must not be recycled
 		 *
 		 * @param width  - width of the new bitmap
 		 * @param height - height of the new bitmap
 		 */
 		private void buildBitmap(int width, int height) {
-			Bitmap tmpBackgroundBitmap = BitmapFactory.decodeResource(getResources(), R.drawable.bg);
-			backgroundBitmap = scaleCenterCrop(tmpBackgroundBitmap, width, height);
-			tmpBackgroundBitmap.recycle();
-		}
-
-		/**
-		 * Scale and center crop a bitmap to fit new dimensions
-		 *
-		 * @param source     - source bitmap to scale and center crop
-		 * @param destWidth  - destination width
-		 * @param destHeight - destination height
-		 * @return - the new scaled and centered bitmap
-		 */
-		public Bitmap scaleCenterCrop(Bitmap source, int destWidth, int destHeight) {
-			int sourceWidth = source.getWidth();
-			int sourceHeight = source.getHeight();
-
-			float xScale = (float) destWidth / sourceWidth;
-			float yScale = (float) destHeight / sourceHeight;
-			float scale = Math.max(xScale, yScale);
-
-			float scaledWidth = scale * sourceWidth;
-			float scaledHeight = scale * sourceHeight;
-
-			float left = (destWidth - scaledWidth) / 2;
-			float top = (destHeight - scaledHeight) / 2;
-
-			RectF destRect = new RectF(left, top, left + scaledWidth, top + scaledHeight);
-
-			Bitmap dest = Bitmap.createBitmap(destWidth, destHeight, source.getConfig());
-			Canvas canvas = new Canvas(dest);
-			canvas.drawBitmap(source, null, destRect, null);
-
-			return dest;
+			backgroundBitmap = resourceManager.getBackground(width, height);
 		}
 
 		/**
 		 * Create the wave shader
 		 */
 		private void createShader() {
-			if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-				wave = getApplicationContext().getDrawable(R.drawable.wave);
-			} else {
-				//noinspection deprecation
-				wave = getResources().getDrawable(R.drawable.wave);
-			}
-
-			assert wave != null;
-
-			int waveW = wave.getIntrinsicWidth();
-			int waveH = wave.getIntrinsicHeight();
-
-			Bitmap b = Bitmap.createBitmap(waveW, waveH, Bitmap.Config.RGB_565);
-			Canvas c = new Canvas(b);
-
-			c.drawColor(CompatUtils.getColor(getApplicationContext(), R.color.drip_color));
-
-			wave.setBounds(0, 0, waveW, waveH);
-			wave.draw(c);
-
 			// The wave is repeated in x axis and transparent in top y axis
-			shader = new BitmapShader(b, Shader.TileMode.REPEAT, Shader.TileMode.CLAMP);
+			shader = new BitmapShader(resourceManager.getWaveBitmap(), Shader.TileMode.REPEAT, Shader.TileMode.CLAMP);
 			paint.setShader(shader);
 		}
 
-		@Override
-		public void onAngleChangedListener(double angle) {
-			finalAngle = angle;
-		}
-
-		private void followScreenRotation() {
-			double angle = finalAngle;
-			int d = (int) Math.abs(angle - phoneAngle) % 360;
-			int r = d > 180 ? 360 - d : d;
-
-			// Change the angle only when there is a certain threshold from the previous angle
-			// this is in order to avoid vibration in the drip
-			if (r > 2) {
-				double mAngle = phoneAngle;
-				double plus = angle - mAngle;
-				double minus = 360 - angle + mAngle;
-
-				// Calculate the new angle
-				if (mAngle > angle) {
-					plus = 360 + plus;
-					minus = minus - 360;
-				}
-				// Find what is the shortest path to the new angle (+ or -)
-				if (plus < minus) {
-					mAngle += Math.min(MAX_ANGLE_CHANGE_IN_FRAME, plus / FOLLOW_SCREEN_ROTATION_FACTOR);
-				} else {
-					mAngle -= Math.min(MAX_ANGLE_CHANGE_IN_FRAME, minus / FOLLOW_SCREEN_ROTATION_FACTOR);
-				}
-
-				phoneAngle = mAngle;
-
-				if (phoneAngle > 360) {
-					phoneAngle = phoneAngle - 360;
-				}
-
-				if (phoneAngle < 0) {
-					phoneAngle = 360 + phoneAngle;
-				}
-
-				waterRotation = 90 - (float) phoneAngle - rotation;
-
-				refreshOrientation();
-			}
-		}
-
 		private void startListeners() {
-			if (sensorHelper == null) {
-				sensorHelper = new SensorHelper(getApplicationContext());
-			}
-
-			if (authHelper == null) {
-				authHelper = new AuthHelper();
-				authHelper.buildFitnessClient(getApplicationContext(), this, this);
-				stepsHelper = new StepsHelper(authHelper.getClient(), this);
-			}
-
-			sensorHelper.start();
-			sensorHelper.setListener(this);
-
-			authHelper.start();
+			sensorHelper.start(this);
+			stepsRepository.subscribe(this);
+			stepsRepository.connect(this);
 		}
 
 		private void stopListeners() {
-			if (sensorHelper != null)
-				sensorHelper.stop();
-			if (authHelper != null)
-				authHelper.stop();
+			sensorHelper.stop(this);
+			stepsRepository.disconnect(this);
 		}
 	}
 }
@@ -0,0 +1,175 @@
+package nirhart.dripmysteps;
+
+import android.view.Choreographer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces the wallpaper frames on the display vsync using {@link Choreographer}.
+ * A frame is delivered at most once per vsync, and less often when a lower target fps is set.
+ * Must be created and used from a thread with a looper (the main thread for wallpaper engines).
+ */
+public class FrameScheduler implements Choreographer.FrameCallback {
+
+	public static final int FPS_ADAPTIVE = 0;
+	public static final int FPS_MAX = 60;
+
+	private static final long NANOS_IN_SECOND = TimeUnit.SECONDS.toNanos(1);
+	// Tolerance for vsync jitter, a frame that arrives a bit early still counts as on time
+	private static final long FRAME_SLACK_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+	// Adaptive mode halves the rate after this many missed frames in a row, and restores it after a run of on time frames
+	private static final int ADAPTIVE_MISSES_TO_SLOW_DOWN = 3;
+	private static final int ADAPTIVE_HITS_TO_SPEED_UP = 120;
+	private static final int ADAPTIVE_MIN_FPS = 15;
+
+	private final Choreographer choreographer;
+	private final OnFrameListener listener;
+	private int targetFps;
+	private long frameIntervalNanos;
+	private long lastFrameTimeNanos;
+	private boolean running;
+	private long framesDrawn;
+	private long framesMissed;
+	private int adaptiveFps = FPS_MAX;
+	private int adaptiveMisses;
+	private int adaptiveHits;
+	private int fpsCap = FPS_MAX;
+
+	public FrameScheduler(OnFrameListener listener) {
+		this.choreographer = Choreographer.getInstance();
+		this.listener = listener;
+		setTargetFps(FPS_MAX);
+	}
+
+	/**
+	 * @param fps - frames per second to aim for, or {@link #FPS_ADAPTIVE} to follow how fast frames are actually drawn
+	 */
+	public void setTargetFps(int fps) {
+		if (fps < 0 || fps > FPS_MAX)
+			fps = FPS_MAX;
+
+		targetFps = fps;
+		adaptiveFps = FPS_MAX;
+		adaptiveMisses = 0;
+		adaptiveHits = 0;
+		updateFrameInterval();
+	}
+
+	public int getTargetFps() {
+		return targetFps;
+	}
+
+	/**
+	 * @param fps - highest frame rate allowed on top of the target fps, e.g. from the {@link FrameRateGovernor}
+	 */
+	public void setFpsCap(int fps) {
+		if (fps <= 0 || fps > FPS_MAX)
+			fps = FPS_MAX;
+
+		if (fpsCap == fps)
+			return;
+
+		fpsCap = fps;
+		updateFrameInterval();
+	}
+
+	public int getFpsCap() {
+		return fpsCap;
+	}
+
+	/**
+	 * Start receiving frames, does nothing if already running
+	 */
+	public void start() {
+		if (running)
+			return;
+
+		running = true;
+		lastFrameTimeNanos = 0;
+		choreographer.postFrameCallback(this);
+	}
+
+	/**
+	 * Stop receiving frames, the next pending vsync is dropped
+	 */
+	public void stop() {
+		running = false;
+		choreographer.removeFrameCallback(this);
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * @return number of frames delivered to the listener
+	 */
+	public long getFramesDrawn() {
+		return framesDrawn;
+	}
+
+	/**
+	 * @return number of frames that should have been delivered according to the target fps but were not
+	 */
+	public long getFramesMissed() {
+		return framesMissed;
+	}
+
+	@Override
+	public void doFrame(long frameTimeNanos) {
+		if (!running)
+			return;
+
+		// Ask for the next vsync first, so a slow frame does not push the schedule further
+		choreographer.postFrameCallback(this);
+
+		if (lastFrameTimeNanos != 0) {
+			long elapsed = frameTimeNanos - lastFrameTimeNanos;
+
+			// Not enough time passed since the previous frame, skip this vsync
+			if (elapsed + FRAME_SLACK_NANOS < frameIntervalNanos)
+				return;
+
+			long missed = (elapsed + FRAME_SLACK_NANOS) / frameIntervalNanos - 1;
+			if (missed > 0) {
+				framesMissed += missed;
+			}
+			onFrameResult(missed > 0);
+		}
+
+		lastFrameTimeNanos = frameTimeNanos;
+		framesDrawn++;
+		listener.onFrame(frameTimeNanos);
+	}
+
+	private void onFrameResult(boolean missed) {
+		if (targetFps != FPS_ADAPTIVE)
+			return;
+
+		if (missed) {
+			adaptiveHits = 0;
+			if (++adaptiveMisses >= ADAPTIVE_MISSES_TO_SLOW_DOWN && adaptiveFps > ADAPTIVE_MIN_FPS) {
+				adaptiveFps /= 2;
+				adaptiveMisses = 0;
+				updateFrameInterval();
+			}
+		} else {
+			adaptiveMisses = 0;
+			if (++adaptiveHits >= ADAPTIVE_HITS_TO_SPEED_UP && adaptiveFps < FPS_MAX) {
+				adaptiveFps = Math.min(FPS_MAX, adaptiveFps * 2);
+				adaptiveHits = 0;
+				updateFrameInterval();
+			}
+		}
+	}
+
+	private void updateFrameInterval() {
+		int fps = targetFps == FPS_ADAPTIVE ? adaptiveFps : targetFps;
+		fps = Math.min(fps, fpsCap);
+		frameIntervalNanos = NANOS_IN_SECOND / fps;
+	}
+
+	public interface OnFrameListener {
+		void onFrame(long frameTimeNanos);
+	}
+}
@@ -0,0 +1,74 @@
+package nirhart.dripmysteps;
+
+import android.content.Context;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Records the accelerometer events and the steps counts the engines get to a trace file in the app's files,
+ * to be replayed later through the engine with TraceReplayTest.
+ * A write error ends the recording, the trace up to that point is still readable.
+ */
+public class InputRecorder implements StepSource.OnStepsCountFetchedListener {
+
+	private static final int BUFFER_SIZE = 16 * 1024;
+
+	private final File file;
+	private final InputTraceWriter writer;
+
+	private InputRecorder(File file, InputTraceWriter writer) {
+		this.file = file;
+		this.writer = writer;
+	}
+
+	/**
+	 * Start a new trace file, in the external files when available so it can be pulled from the device
+	 */
+	public static InputRecorder start(Context context) throws IOException {
+		File dir = context.getExternalFilesDir(null);
+		if (dir == null) {
+			dir = context.getFilesDir();
+		}
+
+		File file = new File(dir, "drip-trace-" + System.currentTimeMillis() + ".bin");
+		InputTraceWriter writer = new InputTraceWriter(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE), Clock.SYSTEM);
+		return new InputRecorder(file, writer);
+	}
+
+	/**
+	 * Called from the sensor thread for every accelerometer event
+	 */
+	public void onSensorEvent(float x, float y, long timestamp) {
+		try {
+			writer.writeSensor(x, y, timestamp);
+		} catch (IOException e) {
+			stop();
+		}
+	}
+
+	@Override
+	public void onStepsCountFetched(int count) {
+		try {
+			writer.writeSteps(count);
+		} catch (IOException e) {
+			stop();
+		}
+	}
+
+	/**
+	 * Flush and close the trace, later events are dropped
+	 */
+	public void stop() {
+		try {
+			writer.close();
+		} catch (IOException ignore) {
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+}
@@ -0,0 +1,192 @@
+package nirhart.dripmysteps;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Build;
+import android.os.SystemClock;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+
+import java.util.Calendar;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Live steps count built on the on-device step counter.
+ * Steps counted by the sensor are added locally on top of the last count read from the Fitness history,
+ * and the history is read again only once in a while to reconcile with steps from other devices.
+ * Falls back to reading the history on every fetch when the device has no step counter.
+ */
+public class LiveStepSource implements StepSource, SensorEventListener, StepSource.OnStepsFetchCompletedListener, StepSource.OnStepsCountFailedListener {
+
+	/**
+	 * Read the Fitness history at most this often while the step counter is running
+	 */
+	public static final long RECONCILE_INTERVAL = TimeUnit.MINUTES.toMillis(15);
+
+	private final Context context;
+	private final StepSource history;
+	private final OnStepsCountFetchedListener listener;
+	private final OnStepsFetchCompletedListener completedListener;
+	private final OnStepsCountFailedListener failedListener;
+	private final Object lock = new Object();
+	private SensorManager sensorManager;
+	private Sensor stepCounter;
+	private volatile boolean listening;
+	// Last count read from the history and the steps counted locally since
+	private boolean hasBase;
+	private int baseCount;
+	private int localSteps;
+	private int localStepsAtFetch;
+	private int baseDay;
+	private long lastReconcileTime;
+	private float lastCounterValue = -1;
+
+	/**
+	 * @param context        - context to get the sensor service from
+	 * @param client         - Fitness client to read the history with
+	 * @param store          - local history to keep the hours read in
+	 * @param listener          - listener for the counts pushed by the step counter
+	 * @param completedListener - listener for the fetched counts
+	 * @param failedListener    - listener for failed history reads
+	 */
+	public LiveStepSource(Context context, GoogleApiClient client, HourlyStepStore store, OnStepsCountFetchedListener listener, OnStepsFetchCompletedListener completedListener, OnStepsCountFailedListener failedListener) {
+		this.context = context.getApplicationContext();
+		this.history = new StepsHelper(client, store, this, this);
+		this.listener = listener;
+		this.completedListener = completedListener;
+		this.failedListener = failedListener;
+	}
+
+	/**
+	 * @return true if the device has a step counter sensor
+	 */
+	public static boolean isSupported(Context context) {
+		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT)
+			return false;
+
+		SensorManager manager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+		return manager != null && manager.getDefaultSensor(Sensor.TYPE_STEP_COUNTER) != null;
+	}
+
+	@Override
+	@TargetApi(Build.VERSION_CODES.KITKAT)
+	public void start() {
+		history.start();
+
+		if (listening || !isSupported(context))
+			return;
+
+		if (sensorManager == null) {
+			sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+			stepCounter = sensorManager.getDefaultSensor(Sensor.TYPE_STEP_COUNTER);
+		}
+
+		listening = sensorManager.registerListener(this, stepCounter, SensorManager.SENSOR_DELAY_NORMAL);
+	}
+
+	@Override
+	public void stop() {
+		history.stop();
+
+		if (!listening)
+			return;
+
+		sensorManager.unregisterListener(this);
+		listening = false;
+
+		synchronized (lock) {
+			// Steps taken while not listening are not counted, the next fetch reconciles
+			lastCounterValue = -1;
+			lastReconcileTime = 0;
+		}
+	}
+
+	@Override
+	public void fetchStepsCount() {
+		boolean reconcile;
+		int count;
+		synchronized (lock) {
+			reconcile = !listening || !hasBase || baseDay != today() || SystemClock.uptimeMillis() - lastReconcileTime > RECONCILE_INTERVAL;
+			if (reconcile) {
+				localStepsAtFetch = localSteps;
+			}
+			count = baseCount + localSteps;
+		}
+
+		if (reconcile) {
+			history.fetchStepsCount();
+		} else {
+			completedListener.onStepsFetchCompleted(count);
+		}
+	}
+
+	/**
+	 * A count read from the history
+	 */
+	@Override
+	public void onStepsFetchCompleted(int count) {
+		int total;
+		synchronized (lock) {
+			hasBase = true;
+			baseCount = count;
+			baseDay = today();
+			lastReconcileTime = SystemClock.uptimeMillis();
+			// Keep only the steps counted after the history read started
+			localSteps = Math.max(0, localSteps - localStepsAtFetch);
+			localStepsAtFetch = 0;
+			total = baseCount + localSteps;
+		}
+		completedListener.onStepsFetchCompleted(total);
+	}
+
+	/**
+	 * A history read failed, the local steps are kept for the next reconcile
+	 */
+	@Override
+	public void onStepsCountFailed() {
+		synchronized (lock) {
+			localStepsAtFetch = 0;
+		}
+		failedListener.onStepsCountFailed();
+	}
+
+	@Override
+	public void onSensorChanged(SensorEvent event) {
+		float value = event.values[0];
+		int total;
+		synchronized (lock) {
+			if (lastCounterValue < 0 || !hasBase) {
+				// First value only sets the reference point, the counter counts since boot
+				lastCounterValue = value;
+				return;
+			}
+
+			float delta = value - lastCounterValue;
+			if (delta < 0) {
+				// The counter was reset by a reboot
+				delta = value;
+			}
+			lastCounterValue = value;
+
+			if (delta == 0)
+				return;
+
+			localSteps += (int) delta;
+			total = baseCount + localSteps;
+		}
+		listener.onStepsCountFetched(total);
+	}
+
+	@Override
+	public void onAccuracyChanged(Sensor sensor, int accuracy) {
+
+	}
+
+	private static int today() {
+		return Calendar.getInstance().get(Calendar.DAY_OF_YEAR);
+	}
+}
@@ -0,0 +1,98 @@
+package nirhart.dripmysteps;
+
+import android.annotation.TargetApi;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PowerManager;
+
+/**
+ * Follows the battery level, the charging state and the system power saver, for the {@link FrameRateGovernor}.
+ * Register and unregister from the main thread, the state may be read from any thread.
+ */
+public class PowerStateMonitor extends BroadcastReceiver {
+
+	private final Context context;
+	private boolean registered;
+	private volatile int batteryLevel = -1;
+	private volatile boolean charging;
+	private volatile boolean powerSave;
+
+	public PowerStateMonitor(Context context) {
+		this.context = context.getApplicationContext();
+	}
+
+	public void start() {
+		if (registered)
+			return;
+
+		IntentFilter filter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+			filter.addAction(PowerManager.ACTION_POWER_SAVE_MODE_CHANGED);
+		}
+
+		// The battery broadcast is sticky, so the current state is known right away
+		Intent battery = context.registerReceiver(this, filter);
+		registered = true;
+		if (battery != null) {
+			onBatteryChanged(battery);
+		}
+		updatePowerSave();
+	}
+
+	public void stop() {
+		if (!registered)
+			return;
+
+		context.unregisterReceiver(this);
+		registered = false;
+	}
+
+	@Override
+	public void onReceive(Context context, Intent intent) {
+		if (Intent.ACTION_BATTERY_CHANGED.equals(intent.getAction())) {
+			onBatteryChanged(intent);
+		} else {
+			updatePowerSave();
+		}
+	}
+
+	/**
+	 * @return battery level in percents, -1 if unknown
+	 */
+	public int getBatteryLevel() {
+		return batteryLevel;
+	}
+
+	public boolean isCharging() {
+		return charging;
+	}
+
+	public boolean isPowerSaveMode() {
+		return powerSave;
+	}
+
+	private void onBatteryChanged(Intent intent) {
+		int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+		int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+		batteryLevel = level >= 0 && scale > 0 ? level * 100 / scale : -1;
+
+		int status = intent.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+		charging = status == BatteryManager.BATTERY_STATUS_CHARGING || status == BatteryManager.BATTERY_STATUS_FULL;
+	}
+
+	private void updatePowerSave() {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+			powerSave = isPowerSaveModeOn();
+		}
+	}
+
+	@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+	private boolean isPowerSaveModeOn() {
+		PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+		return powerManager != null && powerManager.isPowerSaveMode();
+	}
+}
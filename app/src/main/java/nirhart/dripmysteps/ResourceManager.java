@@ -0,0 +1,247 @@
+package nirhart.dripmysteps;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Typeface;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.DisplayMetrics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Owns the heavy drawing resources of the wallpaper: the background bitmaps, the wave bitmap and the drip font.
+ * Reacts to memory pressure by releasing or downgrading them, engines are told to drop their references
+ * and rebuild the resources lazily on their next visible frame.
+ * Should be used from the main thread.
+ */
+public class ResourceManager {
+
+	public static final int QUALITY_FULL = 0;
+	public static final int QUALITY_RGB_565 = 1;
+	public static final int QUALITY_HALF_RESOLUTION = 2;
+
+	private static final String FONT_ASSET = "dripfont.ttf";
+	// Enough for both orientations of the screen and a preview sized surface
+	private static final int BACKGROUND_CACHE_SCREENS = 3;
+	// Go back to full quality only after a while without memory pressure
+	private static final long QUALITY_RESTORE_DELAY = TimeUnit.MINUTES.toMillis(10);
+
+	private final Context context;
+	private final BitmapCache backgroundCache;
+	private final List<OnResourcesReleasedListener> listeners = new ArrayList<OnResourcesReleasedListener>();
+	private Typeface typeface;
+	private int typefaceBytes;
+	private Bitmap waveBitmap;
+	private int waveWidth;
+	private int quality = QUALITY_FULL;
+	private long lastTrimTime;
+
+	public ResourceManager(Context context) {
+		this.context = context.getApplicationContext();
+
+		DisplayMetrics metrics = this.context.getResources().getDisplayMetrics();
+		int screenBytes = metrics.widthPixels * metrics.heightPixels * 4;
+		this.backgroundCache = new BitmapCache(this.context.getResources(), R.drawable.bg, BACKGROUND_CACHE_SCREENS * screenBytes);
+	}
+
+	public void addListener(OnResourcesReleasedListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(OnResourcesReleasedListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Get the background scaled to the surface, in the quality allowed by the current memory pressure.
+	 * The returned bitmap may be smaller than the surface and should be drawn scaled to it.
+	 */
+	public Bitmap getBackground(int width, int height) {
+		int quality = getQuality();
+		Bitmap.Config config = quality == QUALITY_FULL ? Bitmap.Config.ARGB_8888 : Bitmap.Config.RGB_565;
+
+		if (quality == QUALITY_HALF_RESOLUTION) {
+			width = Math.max(1, width / 2);
+			height = Math.max(1, height / 2);
+		}
+
+		return backgroundCache.get(width, height, config);
+	}
+
+	public Typeface getTypeface() {
+		if (typeface == null) {
+			typeface = Typeface.createFromAsset(context.getAssets(), FONT_ASSET);
+			typefaceBytes = measureAsset(FONT_ASSET);
+		}
+		return typeface;
+	}
+
+	/**
+	 * Get the wave texture, the drip color with the wave drawn on top
+	 */
+	public Bitmap getWaveBitmap() {
+		if (waveBitmap == null) {
+			Drawable wave;
+			if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+				wave = context.getDrawable(R.drawable.wave);
+			} else {
+				//noinspection deprecation
+				wave = context.getResources().getDrawable(R.drawable.wave);
+			}
+
+			assert wave != null;
+
+			int waveW = wave.getIntrinsicWidth();
+			int waveH = wave.getIntrinsicHeight();
+
+			Bitmap b = Bitmap.createBitmap(waveW, waveH, Bitmap.Config.RGB_565);
+			Canvas c = new Canvas(b);
+
+			c.drawColor(CompatUtils.getColor(context, R.color.drip_color));
+
+			wave.setBounds(0, 0, waveW, waveH);
+			wave.draw(c);
+
+			waveBitmap = b;
+			waveWidth = waveW;
+		}
+		return waveBitmap;
+	}
+
+	/**
+	 * @return the width of the wave texture, the wave repeats itself every this many pixels
+	 */
+	public int getWaveWidth() {
+		if (waveWidth == 0) {
+			getWaveBitmap();
+		}
+		return waveWidth;
+	}
+
+	/**
+	 * @return the height of the wave texture
+	 */
+	public int getWaveHeight() {
+		return getWaveBitmap().getHeight();
+	}
+
+	/**
+	 * @return one of the QUALITY constants, the quality new resources are built in
+	 */
+	public int getQuality() {
+		if (quality != QUALITY_FULL && SystemClock.uptimeMillis() - lastTrimTime > QUALITY_RESTORE_DELAY) {
+			quality = QUALITY_FULL;
+		}
+		return quality;
+	}
+
+	public void onTrimMemory(int level) {
+		lastTrimTime = SystemClock.uptimeMillis();
+
+		if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+			// About to be killed, give back everything
+			releaseAll(QUALITY_HALF_RESOLUTION);
+		} else if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+			downgrade(QUALITY_HALF_RESOLUTION);
+		} else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+			downgrade(QUALITY_RGB_565);
+		} else {
+			// TRIM_MEMORY_RUNNING_MODERATE and TRIM_MEMORY_UI_HIDDEN, only drop what can be rebuilt without decoding
+			backgroundCache.releaseDecodeBuffer();
+		}
+	}
+
+	public void onLowMemory() {
+		lastTrimTime = SystemClock.uptimeMillis();
+		releaseAll(QUALITY_HALF_RESOLUTION);
+	}
+
+	/**
+	 * Drop all the resources without notifying, used when no engine is left to draw them
+	 */
+	public void clear() {
+		backgroundCache.evictAll();
+		waveBitmap = null;
+		typeface = null;
+		typefaceBytes = 0;
+	}
+
+	private void downgrade(int newQuality) {
+		if (newQuality <= quality) {
+			backgroundCache.releaseDecodeBuffer();
+			return;
+		}
+
+		quality = newQuality;
+		backgroundCache.evictAll();
+		notifyReleased();
+	}
+
+	private void releaseAll(int newQuality) {
+		quality = Math.max(quality, newQuality);
+		backgroundCache.evictAll();
+		waveBitmap = null;
+		typeface = null;
+		typefaceBytes = 0;
+		notifyReleased();
+	}
+
+	private void notifyReleased() {
+		for (int i = 0; i < listeners.size(); i++) {
+			listeners.get(i).onResourcesReleased();
+		}
+	}
+
+	/**
+	 * @return bytes held by the cached background bitmaps and their decode buffer
+	 */
+	public int getBackgroundBytes() {
+		return backgroundCache.getCachedBytes() + backgroundCache.getDecodeBufferBytes();
+	}
+
+	/**
+	 * @return bytes held by the wave texture
+	 */
+	public int getWaveBytes() {
+		return waveBitmap == null ? 0 : waveBitmap.getByteCount();
+	}
+
+	/**
+	 * @return approximate bytes held by the drip font, the size of the font file
+	 */
+	public int getTypefaceBytes() {
+		return typefaceBytes;
+	}
+
+	private int measureAsset(String asset) {
+		InputStream in = null;
+		try {
+			in = context.getAssets().open(asset);
+			return in.available();
+		} catch (IOException e) {
+			return 0;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException ignore) {
+				}
+			}
+		}
+	}
+
+	public interface OnResourcesReleasedListener {
+		/**
+		 * Drop all references to the managed resources, they are rebuilt on the next visible frame
+		 */
+		void onResourcesReleased();
+	}
+}
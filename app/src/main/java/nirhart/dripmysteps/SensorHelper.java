@@ -1,37 +1,152 @@
 package nirhart.dripmysteps;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
 
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gravity angle from the accelerometer, shared by all the engines.
+ * Events are delivered on a dedicated sensor thread, batched by the hardware where supported,
+ * and low pass filtered in place. Only the latest filtered angle is published, the renderer reads it once per frame.
+ * <p/>
+ * The sensor is duty cycled: once the gravity vector is stable for {@link #LOW_RATE_AFTER} it is sampled at a low rate,
+ * and a tilt wakes it back up. It is never unregistered while an owner is visible: the significant motion sensor only
+ * fires on walking or riding, not on picking the phone up or turning it, and many devices do not have one.
+ */
 public class SensorHelper implements SensorEventListener {
 
+	/**
+	 * Accelerometer sampling period, in microseconds
+	 */
+	public static final int SAMPLING_PERIOD_US = (int) TimeUnit.MILLISECONDS.toMicros(100);
+	/**
+	 * Events may be held in the hardware queue for this long, in microseconds, so the device can sleep in between
+	 */
+	public static final int MAX_REPORT_LATENCY_US = (int) TimeUnit.MILLISECONDS.toMicros(300);
+
+	/**
+	 * Stable time before dropping to the low rate, in nanoseconds
+	 */
+	public static final long LOW_RATE_AFTER = TimeUnit.SECONDS.toNanos(10);
+	/**
+	 * Accelerometer sampling period at the low rate, in microseconds. Not batched, so a move wakes it quickly.
+	 */
+	public static final int LOW_RATE_PERIOD_US = (int) TimeUnit.MILLISECONDS.toMicros(500);
+
+	private static final int MODE_OFF = 0;
+	private static final int MODE_ACTIVE = 1;
+	private static final int MODE_LOW_RATE = 2;
+	// A gravity change bigger than that (in m/s^2) is a tilt, it works also when the phone lies flat and has no angle
+	private static final float MOTION_THRESHOLD = 0.6f;
+
 	public final Context context;
+	private final CopyOnWriteArrayList<Object> owners = new CopyOnWriteArrayList<Object>();
 	private SensorManager sensorManager;
-	private OnAngleChangedListener listener;
+	private HandlerThread sensorThread;
+	private Handler sensorHandler;
+	private Sensor accelerometer;
+	private volatile int mode = MODE_OFF;
+	// Updated only from the sensor thread
+	private final GravityFilter gravityFilter = new GravityFilter();
+	// Stability state, used only from the sensor thread
+	private float stableX, stableY;
+	private long stableSince;
+	private volatile boolean restartStability;
+	private volatile boolean rotationIdle;
+	private volatile InputRecorder recorder;
 
 	public SensorHelper(Context context) {
 		this.context = context.getApplicationContext();
 	}
 
-	public void start() {
-		if (sensorManager == null)
+	/**
+	 * Start updating the angle for the owner, the sensor is registered once for all the owners
+	 */
+	public synchronized void start(Object owner) {
+		if (!owners.addIfAbsent(owner) || owners.size() > 1)
+			return;
+
+		if (sensorManager == null) {
 			sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
-		sensorManager.registerListener(this, sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER), SensorManager.SENSOR_DELAY_NORMAL);
+			accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+		}
+
+		if (sensorThread == null) {
+			sensorThread = new HandlerThread("DripSensor", Process.THREAD_PRIORITY_BACKGROUND);
+			sensorThread.start();
+			sensorHandler = new Handler(sensorThread.getLooper());
+		}
+
+		setMode(MODE_ACTIVE);
 	}
 
-	public void stop() {
-		if (sensorManager == null) {
+	/**
+	 * Stop updating the angle for the owner, the sensor is unregistered when no owner is left
+	 */
+	public synchronized void stop(Object owner) {
+		if (!owners.remove(owner) || !owners.isEmpty() || sensorManager == null) {
 			return;
 		}
-		sensorManager.unregisterListener(this);
+		setMode(MODE_OFF);
+	}
+
+	/**
+	 * Unregister the sensor, drop all the owners and quit the sensor thread
+	 */
+	public synchronized void stopAll() {
+		owners.clear();
+		if (sensorManager != null) {
+			setMode(MODE_OFF);
+		}
+
+		if (sensorThread != null) {
+			sensorThread.quit();
+			sensorThread = null;
+			sensorHandler = null;
+		}
+	}
+
+	/**
+	 * @return the latest filtered gravity angle in degrees, may be called from any thread
+	 */
+	public double getAngle() {
+		return gravityFilter.getAngle();
+	}
+
+	/**
+	 * @return true if an angle was measured since the sensor was registered
+	 */
+	public boolean hasAngle() {
+		return gravityFilter.hasAngle();
+	}
+
+	/**
+	 * @param recorder - gets every raw event before it is filtered, null to stop recording
+	 */
+	public void setRecorder(InputRecorder recorder) {
+		this.recorder = recorder;
+	}
+
+	/**
+	 * @return true if the phone did not move for a while, so the angle is not expected to change
+	 */
+	public boolean isRotationIdle() {
+		return rotationIdle;
 	}
 
 	@Override
 	public void onSensorChanged(SensorEvent event) {
-		updatePoint(event.values[0], event.values[1]);
+		updatePoint(event.values[0], event.values[1], event.timestamp);
 	}
 
 	@Override
@@ -40,41 +155,96 @@ public class SensorHelper implements SensorEventListener {
 	}
 
 	/**
-	 * Update the gravity point only if a the gravity vector is longer than the threshold
+	 * Filter the gravity vector and publish its angle, only if the gravity vector is longer than the threshold
 	 *
-	 * @param x - x value from accelerometer
-	 * @param y - y value from accelerometer
+	 * @param x         - x value from accelerometer
+	 * @param y         - y value from accelerometer
+	 * @param timestamp - time of the event in nanoseconds
 	 */
-	public void updatePoint(float x, float y) {
-		if (Math.sqrt(x * x + y * y) > 1.5)
-			if (listener != null) {
-				listener.onAngleChangedListener(getAngle(x, -y));
-			}
+	public void updatePoint(float x, float y, long timestamp) {
+		InputRecorder recorder = this.recorder;
+		if (recorder != null) {
+			recorder.onSensorEvent(x, y, timestamp);
+		}
+
+		gravityFilter.update(x, y, timestamp);
+		trackStability(timestamp);
 	}
 
 	/**
-	 * Calculate the gravity angle given two coordinates
-	 *
-	 * @param x - x coordinate
-	 * @param y - y coordinate
-	 * @return angle from origin
+	 * Step the duty cycle according to how long the gravity vector was stable, called from the sensor thread
 	 */
-	public double getAngle(float x, float y) {
-		double inRads = Math.atan2(y, x);
+	private void trackStability(long timestamp) {
+		float gravityX = gravityFilter.getX();
+		float gravityY = gravityFilter.getY();
+		float dx = gravityX - stableX;
+		float dy = gravityY - stableY;
+		boolean moved = dx * dx + dy * dy > MOTION_THRESHOLD * MOTION_THRESHOLD;
+		if (restartStability || moved) {
+			restartStability = false;
+			stableX = gravityX;
+			stableY = gravityY;
+			stableSince = timestamp;
+			if (moved && mode == MODE_LOW_RATE) {
+				wake();
+			}
+			return;
+		}
 
-		if (inRads < 0)
-			inRads = Math.abs(inRads);
-		else
-			inRads = 2 * Math.PI - inRads;
+		long stable = timestamp - stableSince;
+		// The low rate is the deepest it goes, a tilt has to be noticed for as long as the water is on screen
+		if (mode == MODE_ACTIVE && stable > LOW_RATE_AFTER) {
+			synchronized (this) {
+				if (mode == MODE_ACTIVE)
+					setMode(MODE_LOW_RATE);
+			}
+		}
+	}
 
-		return Math.toDegrees(inRads);
+	/**
+	 * Back to the full rate, if the sensor was not stopped meanwhile
+	 */
+	private synchronized void wake() {
+		if (mode == MODE_LOW_RATE) {
+			setMode(MODE_ACTIVE);
+		}
 	}
 
-	public void setListener(OnAngleChangedListener listener) {
-		this.listener = listener;
+	/**
+	 * Register the sensors for the given mode, should be called holding the lock
+	 */
+	private void setMode(int newMode) {
+		if (mode == newMode)
+			return;
+
+		if (mode != MODE_OFF) {
+			sensorManager.unregisterListener(this);
+		}
+
+		mode = newMode;
+		rotationIdle = newMode == MODE_LOW_RATE;
+		if (newMode == MODE_ACTIVE) {
+			// The next event starts a new stable period, the filter restarts by itself after the gap
+			restartStability = true;
+		}
+
+		switch (newMode) {
+			case MODE_ACTIVE:
+				if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+					registerBatched();
+				} else {
+					sensorManager.registerListener(this, accelerometer, SAMPLING_PERIOD_US, sensorHandler);
+				}
+				break;
+			case MODE_LOW_RATE:
+				sensorManager.registerListener(this, accelerometer, LOW_RATE_PERIOD_US, sensorHandler);
+				break;
+		}
 	}
 
-	public interface OnAngleChangedListener {
-		void onAngleChangedListener(double angle);
+	@TargetApi(Build.VERSION_CODES.KITKAT)
+	private void registerBatched() {
+		// Devices without a hardware FIFO deliver the events right away
+		sensorManager.registerListener(this, accelerometer, SAMPLING_PERIOD_US, MAX_REPORT_LATENCY_US, sensorHandler);
 	}
 }
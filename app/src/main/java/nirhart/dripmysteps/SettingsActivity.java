@@ -1,6 +1,8 @@
 package nirhart.dripmysteps;
 
+import android.app.AlertDialog;
 import android.app.Fragment;
+import android.content.DialogInterface;
 import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.preference.EditTextPreference;
@@ -11,10 +13,15 @@ import android.preference.PreferenceFragment;
 import android.preference.PreferenceGroup;
 import android.preference.PreferenceManager;
 import android.view.View;
+import android.widget.Toast;
+
+import java.io.File;
+import java.io.IOException;
 
 public class SettingsActivity extends PreferenceActivity implements SharedPreferences.OnSharedPreferenceChangeListener {
 
 	public static final String FRAGMENT_TAG = "prefs_tag";
+	private static final String PERFORMANCE_STATS = "performance_stats";
 
 	static private void initSummary(Preference p) {
 		if (p instanceof PreferenceGroup) {
@@ -75,6 +82,14 @@ public class SettingsActivity extends PreferenceActivity implements SharedPrefer
 		public void onCreate(Bundle savedInstanceState) {
 			super.onCreate(savedInstanceState);
 			addPreferencesFromResource(R.xml.prefs_fragment);
+
+			findPreference(PERFORMANCE_STATS).setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+				@Override
+				public boolean onPreferenceClick(Preference preference) {
+					showPerformanceStats();
+					return true;
+				}
+			});
 		}
 
 		@Override
@@ -82,5 +97,30 @@ public class SettingsActivity extends PreferenceActivity implements SharedPrefer
 			super.onViewCreated(view, savedInstanceState);
 			initSummary(getPreferenceScreen());
 		}
+
+		/**
+		 * Show the frame time percentiles recorded by the wallpaper, which runs in this process
+		 */
+		private void showPerformanceStats() {
+			new AlertDialog.Builder(getActivity())
+					.setTitle(R.string.performance_stats)
+					.setMessage(DripMetrics.dump())
+					.setPositiveButton(R.string.dialog_button, null)
+					.setNeutralButton(R.string.performance_stats_save, new DialogInterface.OnClickListener() {
+						@Override
+						public void onClick(DialogInterface dialog, int which) {
+							savePerformanceStats();
+						}
+					}).show();
+		}
+
+		private void savePerformanceStats() {
+			try {
+				File file = DripMetrics.dumpToFile(getActivity());
+				Toast.makeText(getActivity(), getString(R.string.performance_stats_saved, file.getAbsolutePath()), Toast.LENGTH_LONG).show();
+			} catch (IOException e) {
+				Toast.makeText(getActivity(), R.string.performance_stats_save_failed, Toast.LENGTH_LONG).show();
+			}
+		}
 	}
 }
\ No newline at end of file
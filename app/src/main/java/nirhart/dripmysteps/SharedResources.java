@@ -0,0 +1,127 @@
+package nirhart.dripmysteps;
+
+import android.content.Context;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reference counted registry of everything the wallpaper engines can share:
+ * the drawing resources, a single accelerometer stream, the power state and a single steps count source.
+ * The steps count itself comes from the process wide {@link StepsRepository}.
+ * Created lazily by the first engine and released when the last engine is destroyed.
+ * acquire and release should be called from the main thread.
+ */
+public class SharedResources {
+
+	private final Context context;
+	private final List<Object> owners = new ArrayList<Object>();
+	private final StepsRepository stepsRepository;
+	private ResourceManager resourceManager;
+	private SensorHelper sensorHelper;
+	private PowerStateMonitor powerStateMonitor;
+	private boolean recordInput;
+	private InputRecorder inputRecorder;
+
+	public SharedResources(Context context) {
+		this.context = context.getApplicationContext();
+		this.stepsRepository = StepsRepository.getInstance(this.context);
+	}
+
+	/**
+	 * Register an owner, the shared resources are created for the first one
+	 */
+	public void acquire(Object owner) {
+		if (owners.contains(owner))
+			return;
+
+		owners.add(owner);
+		if (resourceManager == null) {
+			resourceManager = new ResourceManager(context);
+			sensorHelper = new SensorHelper(context);
+			powerStateMonitor = new PowerStateMonitor(context);
+			powerStateMonitor.start();
+			updateRecorder();
+		}
+	}
+
+	/**
+	 * Unregister an owner, everything is released when the last owner is gone
+	 */
+	public void release(Object owner) {
+		if (!owners.remove(owner))
+			return;
+
+		stepsRepository.disconnect(owner);
+		if (owner instanceof StepSource.OnStepsCountFetchedListener) {
+			stepsRepository.unsubscribe((StepSource.OnStepsCountFetchedListener) owner);
+		}
+
+		if (owners.isEmpty()) {
+			stopRecorder();
+			sensorHelper.stopAll();
+			powerStateMonitor.stop();
+			resourceManager.clear();
+			resourceManager = null;
+			sensorHelper = null;
+			powerStateMonitor = null;
+		}
+	}
+
+	/**
+	 * Record the inputs of the engines to a trace file, a new file is started every time the engines start
+	 */
+	public void setRecordInput(boolean recordInput) {
+		this.recordInput = recordInput;
+		updateRecorder();
+	}
+
+	private void updateRecorder() {
+		if (!recordInput || owners.isEmpty()) {
+			stopRecorder();
+			return;
+		}
+
+		if (inputRecorder == null) {
+			try {
+				inputRecorder = InputRecorder.start(context);
+			} catch (IOException e) {
+				// Nothing to record to, the wallpaper works the same without it
+				return;
+			}
+			sensorHelper.setRecorder(inputRecorder);
+			stepsRepository.subscribe(inputRecorder);
+		}
+	}
+
+	private void stopRecorder() {
+		if (inputRecorder == null)
+			return;
+
+		sensorHelper.setRecorder(null);
+		stepsRepository.unsubscribe(inputRecorder);
+		inputRecorder.stop();
+		inputRecorder = null;
+	}
+
+	public int getOwnerCount() {
+		return owners.size();
+	}
+
+	public ResourceManager getResourceManager() {
+		return resourceManager;
+	}
+
+	public SensorHelper getSensorHelper() {
+		return sensorHelper;
+	}
+
+	public PowerStateMonitor getPowerStateMonitor() {
+		return powerStateMonitor;
+	}
+
+	public StepsRepository getStepsRepository() {
+		return stepsRepository;
+	}
+}
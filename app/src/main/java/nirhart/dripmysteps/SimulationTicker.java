@@ -0,0 +1,123 @@
+package nirhart.dripmysteps;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the simulation tick on a background looper, keeping at most one pending tick.
+ * Requests that arrive while a tick is already pending are merged into it, so a stalled
+ * worker never builds a backlog of ticks that later run in a burst.
+ */
+public class SimulationTicker {
+
+	private final Handler handler;
+	private final Runnable tick;
+	private final Runnable tickRunner;
+	private final AtomicBoolean pending = new AtomicBoolean();
+	private final AtomicLong requested = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+	private volatile long requestTimeNanos;
+	// Written only from the ticker looper thread
+	private volatile long ticks;
+	private volatile long lastLatencyNanos;
+	private volatile long maxLatencyNanos;
+	private volatile long totalLatencyNanos;
+
+	/**
+	 * @param looper - the looper to run the ticks on, should not be the main looper
+	 * @param tick   - the simulation work to run on every tick
+	 */
+	public SimulationTicker(Looper looper, Runnable tick) {
+		this.handler = new Handler(looper);
+		this.tick = tick;
+		this.tickRunner = new Runnable() {
+			@Override
+			public void run() {
+				runTick();
+			}
+		};
+	}
+
+	/**
+	 * Ask for a tick, if a tick is already pending this request is merged into it
+	 */
+	public void requestTick() {
+		requested.incrementAndGet();
+		if (pending.compareAndSet(false, true)) {
+			requestTimeNanos = System.nanoTime();
+			handler.post(tickRunner);
+		} else {
+			coalesced.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Drop the pending tick if there is one
+	 */
+	public void cancel() {
+		handler.removeCallbacks(tickRunner);
+		pending.set(false);
+	}
+
+	private void runTick() {
+		long latency = System.nanoTime() - requestTimeNanos;
+		// Clear the flag before running, so a request made during this tick schedules exactly one more
+		pending.set(false);
+
+		ticks++;
+		lastLatencyNanos = latency;
+		totalLatencyNanos += latency;
+		if (latency > maxLatencyNanos) {
+			maxLatencyNanos = latency;
+		}
+
+		tick.run();
+	}
+
+	/**
+	 * @return number of ticks waiting to run, never more than one
+	 */
+	public int getQueueDepth() {
+		return pending.get() ? 1 : 0;
+	}
+
+	/**
+	 * @return number of tick requests, including the merged ones
+	 */
+	public long getRequestedCount() {
+		return requested.get();
+	}
+
+	/**
+	 * @return number of tick requests that were merged into an already pending tick
+	 */
+	public long getCoalescedCount() {
+		return coalesced.get();
+	}
+
+	/**
+	 * @return number of ticks that actually ran
+	 */
+	public long getTickCount() {
+		return ticks;
+	}
+
+	/**
+	 * @return time between the request and the start of the last tick
+	 */
+	public long getLastLatencyNanos() {
+		return lastLatencyNanos;
+	}
+
+	public long getMaxLatencyNanos() {
+		return maxLatencyNanos;
+	}
+
+	public long getAverageLatencyNanos() {
+		long count = ticks;
+		return count == 0 ? 0 : totalLatencyNanos / count;
+	}
+}
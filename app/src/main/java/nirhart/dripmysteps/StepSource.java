@@ -0,0 +1,38 @@
+package nirhart.dripmysteps;
+
+/**
+ * A source of today's steps count
+ */
+public interface StepSource {
+
+	/**
+	 * Start producing counts, live sources register their sensors here
+	 */
+	void start();
+
+	void stop();
+
+	/**
+	 * Ask for an up to date count, the result is reported to the {@link OnStepsFetchCompletedListener} asynchronously.
+	 * May be called from any thread.
+	 */
+	void fetchStepsCount();
+
+	interface OnStepsCountFetchedListener {
+		void onStepsCountFetched(int count);
+	}
+
+	interface OnStepsFetchCompletedListener {
+		/**
+		 * A fetch completed, once per {@link #fetchStepsCount()} that did not fail
+		 */
+		void onStepsFetchCompleted(int count);
+	}
+
+	interface OnStepsCountFailedListener {
+		/**
+		 * A fetch failed or timed out, no count is reported for it
+		 */
+		void onStepsCountFailed();
+	}
+}
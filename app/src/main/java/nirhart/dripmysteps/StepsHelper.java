@@ -1,6 +1,7 @@
 package nirhart.dripmysteps;
 
 import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.ResultCallback;
 import com.google.android.gms.fitness.Fitness;
 import com.google.android.gms.fitness.data.Bucket;
 import com.google.android.gms.fitness.data.DataPoint;
@@ -10,80 +11,172 @@ import com.google.android.gms.fitness.data.Field;
 import com.google.android.gms.fitness.request.DataReadRequest;
 import com.google.android.gms.fitness.result.DataReadResult;
 
-import java.util.Calendar;
-import java.util.Date;
+import java.io.IOException;
+import java.util.TimeZone;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
-public class StepsHelper {
+/**
+ * Polls today's steps count from the Fitness history, incrementally via a {@link DayAggregator}.
+ * Every hour read is also kept in the local {@link HourlyStepStore}.
+ * Reads are asynchronous and bounded by {@link #READ_TIMEOUT}, so a hanging Play Services never pins the worker thread.
+ */
+public class StepsHelper implements StepSource {
+
+	/**
+	 * A read that did not complete by then is reported as failed
+	 */
+	public static final long READ_TIMEOUT = TimeUnit.SECONDS.toMillis(20);
 
 	private final GoogleApiClient client;
-	private final OnStepsCountFetchedListener listener;
+	private final OnStepsFetchCompletedListener listener;
+	private final OnStepsCountFailedListener failedListener;
+	private final HourlyStepStore store;
 	private final ExecutorService ex;
+	// Used only from the worker thread
+	private final DayAggregator aggregator;
+	private long lastReadEnd;
 
-	public StepsHelper(GoogleApiClient client, OnStepsCountFetchedListener listener) {
+	/**
+	 * @param client         - Fitness client to read the history with
+	 * @param store          - local history to keep the hours read in
+	 * @param listener       - listener for the fetched counts
+	 * @param failedListener - listener for failed fetches
+	 */
+	public StepsHelper(GoogleApiClient client, HourlyStepStore store, OnStepsFetchCompletedListener listener, OnStepsCountFailedListener failedListener) {
 		this.client = client;
+		this.store = store;
 		this.listener = listener;
+		this.failedListener = failedListener;
+		this.aggregator = new DayAggregator();
 		// Single thread pool with double of STEPS_CHECK_INTERVAL time of idle thread
 		this.ex = new ThreadPoolExecutor(1, 1, DripWallpaperService.STEPS_CHECK_INTERVAL * 2, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
 	}
 
+	@Override
+	public void start() {
+	}
+
+	@Override
+	public void stop() {
+	}
+
+	@Override
 	public void fetchStepsCount() {
 		ex.execute(new Runnable() {
 			@Override
 			public void run() {
-				// Find steps from Fitness API
-				DataReadRequest r = queryFitnessData();
-				DataReadResult dataReadResult = Fitness.HistoryApi.readData(client, r).await(1, TimeUnit.MINUTES);
-				boolean stepsFetched = false;
-				if (dataReadResult.getBuckets().size() > 0) {
-					Bucket bucket = dataReadResult.getBuckets().get(0);
-					DataSet ds = bucket.getDataSet(DataType.TYPE_STEP_COUNT_DELTA);
-					if (ds != null) {
-						for (DataPoint dp : ds.getDataPoints()) {
-							for (Field field : dp.getDataType().getFields()) {
-								if (field.getName().equals("steps")) {
-									stepsFetched = true;
-									listener.onStepsCountFetched(dp.getValue(field).asInt());
-								}
-							}
-						}
+				// Find steps from Fitness API, reading only the time since the previous read
+				readSteps();
+			}
+		});
+	}
+
+	/**
+	 * Start reading the window planned by the aggregator, should be called from the worker thread
+	 */
+	private void readSteps() {
+		if (!client.isConnected()) {
+			failedListener.onStepsCountFailed();
+			return;
+		}
+
+		final long requestNanos = System.nanoTime();
+		long start = aggregator.beginQuery(System.currentTimeMillis(), TimeZone.getDefault());
+		// Now, or the previous midnight when the previous day is closed first
+		final long end = aggregator.getQueryEnd();
+		Fitness.HistoryApi.readData(client, queryFitnessData(start, end)).setResultCallback(new ResultCallback<DataReadResult>() {
+			@Override
+			public void onResult(final DataReadResult dataReadResult) {
+				// Timeouts and failures are counted too, they are what a slow fetch looks like
+				DripMetrics.FITNESS_FETCH.record(System.nanoTime() - requestNanos);
+				// Results are delivered on the main thread, the aggregator is used only from the worker thread
+				ex.execute(new Runnable() {
+					@Override
+					public void run() {
+						onStepsRead(dataReadResult, end);
 					}
-				}
+				});
+			}
+		}, READ_TIMEOUT, TimeUnit.MILLISECONDS);
+	}
 
-				if (!stepsFetched) {
-					// No steps today yet or no fitness data available
-					listener.onStepsCountFetched(0);
+	/**
+	 * Apply a read that completed, timed out or failed
+	 */
+	private void onStepsRead(DataReadResult dataReadResult, long end) {
+		if (!dataReadResult.getStatus().isSuccess()) {
+			// The aggregator does not advance, so the next attempt covers the same window
+			failedListener.onStepsCountFailed();
+			return;
+		}
+
+		applyBuckets(dataReadResult);
+		boolean closedDay = aggregator.isClosingDay();
+
+		if (!aggregator.endQuery(end)) {
+			// Backfilled data was found, read the whole day again. A full read has nothing to compare, so it always ends.
+			readSteps();
+			return;
+		}
+
+		lastReadEnd = end;
+		saveHistory();
+
+		if (closedDay) {
+			// The previous day is complete in the history, now read today
+			readSteps();
+			return;
+		}
+
+		listener.onStepsFetchCompleted(aggregator.getTotal());
+	}
+
+	/**
+	 * Apply the hourly buckets of a read to the aggregator and the local history
+	 */
+	private void applyBuckets(DataReadResult dataReadResult) {
+		// Hours without steps or without fitness data available mean 0 steps
+		for (Bucket bucket : dataReadResult.getBuckets()) {
+			int steps = 0;
+			DataSet ds = bucket.getDataSet(DataType.TYPE_STEP_COUNT_DELTA);
+			if (ds != null) {
+				for (DataPoint dp : ds.getDataPoints()) {
+					for (Field field : dp.getDataType().getFields()) {
+						if (field.getName().equals("steps")) {
+							steps += dp.getValue(field).asInt();
+						}
+					}
 				}
 			}
-		});
+			long bucketStart = bucket.getStartTime(TimeUnit.MILLISECONDS);
+			aggregator.onBucket(bucketStart, steps);
+			store.put(bucketStart, steps);
+		}
 	}
 
 	/**
-	 * Query to get the num of steps since 00:00 until now
+	 * Compact and write the local history, only the hours that changed are appended
 	 */
-	private DataReadRequest queryFitnessData() {
-		Calendar cal = Calendar.getInstance();
-		Date now = new Date();
-		cal.setTime(now);
-		long endTime = cal.getTimeInMillis();
-		cal.set(Calendar.HOUR_OF_DAY, 0);
-		cal.set(Calendar.MINUTE, 0);
-		cal.set(Calendar.SECOND, 0);
-		cal.set(Calendar.MILLISECOND, 0);
-		long startTime = cal.getTimeInMillis();
+	private void saveHistory() {
+		store.compact(lastReadEnd);
+		try {
+			store.flush();
+		} catch (IOException e) {
+			// The history is only a cache of the Fitness data, the next fetch writes it again
+		}
+	}
 
+	/**
+	 * Query to get the num of steps in each hour from startTime until endTime
+	 */
+	private DataReadRequest queryFitnessData(long startTime, long endTime) {
 		return new DataReadRequest.Builder()
 				.aggregate(DataType.TYPE_STEP_COUNT_DELTA, DataType.AGGREGATE_STEP_COUNT_DELTA)
-				.bucketByTime(1, TimeUnit.DAYS)
+				.bucketByTime(1, TimeUnit.HOURS)
 				.setTimeRange(startTime, endTime, TimeUnit.MILLISECONDS)
 				.build();
 	}
-
-	public interface OnStepsCountFetchedListener {
-		void onStepsCountFetched(int count);
-	}
 }
-
@@ -0,0 +1,315 @@
+package nirhart.dripmysteps;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.SystemClock;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process wide source of today's steps count, backed by a {@link LiveStepSource}.
+ * Concurrent refresh requests are merged into a single in flight fetch, a count that is younger than
+ * the freshness window is served from the cache, and every new count is pushed to all the subscribers.
+ * The last count is kept in a {@link StepsSnapshot}, so a restarted wallpaper starts with it.
+ * Fetches start only while the Fitness client is connected, and back off after failures, see {@link FetchBackoff}.
+ */
+public class StepsRepository implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener, StepSource.OnStepsCountFetchedListener, StepSource.OnStepsFetchCompletedListener, StepSource.OnStepsCountFailedListener {
+
+	/**
+	 * A fetched count is served from the cache for this long
+	 */
+	public static final long FRESHNESS_WINDOW = DripWallpaperService.STEPS_CHECK_INTERVAL;
+	// A fetch that did not report back by then is considered lost, so a new one can start
+	private static final long IN_FLIGHT_TIMEOUT = TimeUnit.MINUTES.toMillis(2);
+	private static final String HISTORY_FILE_NAME = "steps_history";
+	// Live counts change with every step, write the snapshot at most this often
+	private static final long SNAPSHOT_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+
+	private static StepsRepository instance;
+
+	private final CopyOnWriteArrayList<StepSource.OnStepsCountFetchedListener> subscribers = new CopyOnWriteArrayList<StepSource.OnStepsCountFetchedListener>();
+	private final List<Object> users = new ArrayList<Object>();
+	private final AuthHelper authHelper;
+	private final StepSource stepSource;
+	private final HourlyStepStore history;
+	private final Object lock = new Object();
+	private final FetchBackoff backoff = new FetchBackoff(new Random());
+	private final Context context;
+	private final ExecutorService snapshotExecutor;
+	private volatile int goal;
+	private long lastSnapshotTime;
+	private boolean hasCount;
+	private int lastCount;
+	private long lastFetchTime;
+	private boolean inFlight;
+	private long inFlightSince;
+	private long fetchCount;
+	private long mergedCount;
+	private long failedCount;
+
+	private StepsRepository(Context context) {
+		this.context = context;
+		// Single thread pool with 1 min time of idle thread, for the snapshot writes
+		this.snapshotExecutor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<Runnable>());
+		authHelper = new AuthHelper();
+		authHelper.buildFitnessClient(context, this, this);
+		history = new HourlyStepStore(new File(context.getFilesDir(), HISTORY_FILE_NAME));
+		stepSource = new LiveStepSource(context, authHelper.getClient(), history, this, this, this);
+	}
+
+	public static synchronized StepsRepository getInstance(Context context) {
+		if (instance == null) {
+			instance = new StepsRepository(context.getApplicationContext());
+		}
+		return instance;
+	}
+
+	/**
+	 * Start from the persisted snapshot if no count was fetched yet, reads a tiny file synchronously.
+	 * The restored count is considered stale, so the next refresh still fetches.
+	 */
+	public void restoreSnapshot() {
+		StepsSnapshot snapshot = StepsSnapshot.read(context);
+		long now = System.currentTimeMillis();
+		if (snapshot == null || !snapshot.isToday(now))
+			return;
+
+		synchronized (lock) {
+			if (hasCount)
+				return;
+
+			hasCount = true;
+			lastCount = snapshot.getCount();
+			lastFetchTime = SystemClock.uptimeMillis() - FRESHNESS_WINDOW;
+		}
+	}
+
+	/**
+	 * @param goal - the steps goal, kept in the snapshot with the count
+	 */
+	public void setGoal(int goal) {
+		this.goal = goal;
+	}
+
+	/**
+	 * Subscribe to new counts, the cached count is pushed right away if there is one
+	 */
+	public void subscribe(StepSource.OnStepsCountFetchedListener listener) {
+		if (!subscribers.addIfAbsent(listener))
+			return;
+
+		int count;
+		synchronized (lock) {
+			if (!hasCount)
+				return;
+			count = lastCount;
+		}
+		listener.onStepsCountFetched(count);
+	}
+
+	public void unsubscribe(StepSource.OnStepsCountFetchedListener listener) {
+		subscribers.remove(listener);
+	}
+
+	/**
+	 * Keep the Fitness client connected and the step source running while at least one user needs steps, should be called from the main thread
+	 */
+	public void connect(Object user) {
+		if (users.contains(user))
+			return;
+
+		users.add(user);
+		if (users.size() == 1) {
+			authHelper.start();
+			stepSource.start();
+		}
+	}
+
+	public void disconnect(Object user) {
+		if (users.remove(user) && users.isEmpty()) {
+			stepSource.stop();
+			authHelper.stop();
+
+			// Make sure the latest count survives until the next start
+			int count;
+			synchronized (lock) {
+				backoff.setConnected(false);
+				if (!hasCount)
+					return;
+				count = lastCount;
+			}
+			saveSnapshot(count, true);
+		}
+	}
+
+	/**
+	 * Fetch the steps count unless the cached one is fresh, a fetch is already in flight,
+	 * or fetches are held back by the client connection or by the backoff after failures.
+	 * Cheap enough to be called on every tick, may be called from any thread.
+	 */
+	public void refresh() {
+		long now = SystemClock.uptimeMillis();
+		synchronized (lock) {
+			if (hasCount && now - lastFetchTime < FRESHNESS_WINDOW)
+				return;
+
+			if (!backoff.canFetch(now))
+				return;
+
+			if (inFlight && now - inFlightSince < IN_FLIGHT_TIMEOUT) {
+				mergedCount++;
+				return;
+			}
+
+			inFlight = true;
+			inFlightSince = now;
+			fetchCount++;
+		}
+		stepSource.fetchStepsCount();
+	}
+
+	/**
+	 * @return the local history of steps, for trends and streaks. Loads from disk on first use, so should not be used from the main thread.
+	 */
+	public HourlyStepStore getHistory() {
+		return history;
+	}
+
+	/**
+	 * @return number of fetches that failed or timed out
+	 */
+	public long getFailedCount() {
+		synchronized (lock) {
+			return failedCount;
+		}
+	}
+
+	/**
+	 * @return true if a count was already fetched
+	 */
+	public boolean hasCount() {
+		synchronized (lock) {
+			return hasCount;
+		}
+	}
+
+	/**
+	 * @return the last fetched count, 0 if none was fetched yet
+	 */
+	public int getLastCount() {
+		synchronized (lock) {
+			return lastCount;
+		}
+	}
+
+	/**
+	 * @return number of fetches asked from the step source
+	 */
+	public long getFetchCount() {
+		synchronized (lock) {
+			return fetchCount;
+		}
+	}
+
+	/**
+	 * @return number of refresh requests merged into a fetch already in flight
+	 */
+	public long getMergedCount() {
+		synchronized (lock) {
+			return mergedCount;
+		}
+	}
+
+	/**
+	 * A count pushed by the step counter, the fetch state is left alone so the history is still reconciled while walking
+	 */
+	@Override
+	public void onStepsCountFetched(int count) {
+		publish(count);
+	}
+
+	@Override
+	public void onStepsFetchCompleted(int count) {
+		synchronized (lock) {
+			lastFetchTime = SystemClock.uptimeMillis();
+			if (inFlight) {
+				backoff.onSuccess();
+			}
+			inFlight = false;
+		}
+		publish(count);
+	}
+
+	private void publish(int count) {
+		synchronized (lock) {
+			hasCount = true;
+			lastCount = count;
+		}
+
+		saveSnapshot(count, false);
+
+		for (StepSource.OnStepsCountFetchedListener subscriber : subscribers) {
+			subscriber.onStepsCountFetched(count);
+		}
+	}
+
+	private void saveSnapshot(int count, boolean force) {
+		long now = SystemClock.uptimeMillis();
+		synchronized (lock) {
+			if (!force && lastSnapshotTime != 0 && now - lastSnapshotTime < SNAPSHOT_INTERVAL)
+				return;
+			lastSnapshotTime = now;
+		}
+
+		final StepsSnapshot snapshot = new StepsSnapshot(count, goal, DayAggregator.startOfDay(System.currentTimeMillis(), TimeZone.getDefault()));
+		snapshotExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				snapshot.write(context);
+			}
+		});
+	}
+
+	@Override
+	public void onStepsCountFailed() {
+		synchronized (lock) {
+			inFlight = false;
+			failedCount++;
+			backoff.onFailure(SystemClock.uptimeMillis());
+		}
+	}
+
+	@Override
+	public void onConnected(Bundle bundle) {
+		synchronized (lock) {
+			backoff.setConnected(true);
+		}
+		refresh();
+	}
+
+	@Override
+	public void onConnectionSuspended(int i) {
+		synchronized (lock) {
+			backoff.setConnected(false);
+		}
+	}
+
+	@Override
+	public void onConnectionFailed(ConnectionResult connectionResult) {
+		synchronized (lock) {
+			backoff.setConnected(false);
+		}
+	}
+}
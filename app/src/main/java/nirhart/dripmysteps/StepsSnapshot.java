@@ -0,0 +1,103 @@
+package nirhart.dripmysteps;
+
+import android.content.Context;
+import android.support.v4.util.AtomicFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.TimeZone;
+
+/**
+ * The last known steps count, goal and day, persisted so the wallpaper can show the right fill
+ * right after a restart, before the first steps fetch is done.
+ * The file is written atomically, a crash while writing leaves the previous snapshot intact.
+ */
+public class StepsSnapshot {
+
+	private static final String FILE_NAME = "steps_snapshot";
+	private static final int VERSION = 1;
+
+	private final int count;
+	private final int goal;
+	private final long day;
+
+	public StepsSnapshot(int count, int goal, long day) {
+		this.count = count;
+		this.goal = goal;
+		this.day = day;
+	}
+
+	private static AtomicFile getFile(Context context) {
+		return new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+	}
+
+	/**
+	 * Read the snapshot synchronously, the file is only a few bytes
+	 *
+	 * @return the snapshot, or null if there is none or it can not be read
+	 */
+	public static StepsSnapshot read(Context context) {
+		try {
+			byte[] data = getFile(context).readFully();
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+			if (in.readInt() != VERSION)
+				return null;
+
+			long day = in.readLong();
+			int count = in.readInt();
+			int goal = in.readInt();
+			return new StepsSnapshot(count, goal, day);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Write the snapshot, replacing the previous one atomically.
+	 * Does disk IO, should not be called from the main thread.
+	 */
+	public void write(Context context) {
+		AtomicFile file = getFile(context);
+		FileOutputStream out = null;
+		try {
+			out = file.startWrite();
+			DataOutputStream data = new DataOutputStream(out);
+			data.writeInt(VERSION);
+			data.writeLong(day);
+			data.writeInt(count);
+			data.writeInt(goal);
+			data.flush();
+			file.finishWrite(out);
+		} catch (IOException e) {
+			if (out != null) {
+				file.failWrite(out);
+			}
+		}
+	}
+
+	/**
+	 * @return true if the snapshot was taken today, a count from another day means nothing
+	 */
+	public boolean isToday(long now) {
+		return day == DayAggregator.startOfDay(now, TimeZone.getDefault());
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public int getGoal() {
+		return goal;
+	}
+
+	/**
+	 * @return the start of the day the count belongs to
+	 */
+	public long getDay() {
+		return day;
+	}
+}
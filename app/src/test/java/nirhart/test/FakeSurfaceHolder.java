@@ -0,0 +1,127 @@
+package nirhart.dripmysteps;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+import org.robolectric.Shadows;
+
+/**
+ * Surface holder backed by a single bitmap, for running the engine without a display.
+ * The canvas records the draw operations of every frame into one description, a posted frame only remembers
+ * where its operations are, and its transcript is built when taken, so a frame allocates nothing here.
+ */
+public class FakeSurfaceHolder implements SurfaceHolder {
+
+	private final Rect frame;
+	private final Canvas canvas;
+	private final Rect lockedDirty = new Rect();
+	private final Rect postedDirty = new Rect();
+	private boolean locked;
+	private boolean posted;
+	private int lockedStart;
+	private int postedStart, postedEnd;
+	private long lockCount;
+
+	public FakeSurfaceHolder(int width, int height) {
+		this.frame = new Rect(0, 0, width, height);
+		this.canvas = new Canvas(Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888));
+	}
+
+	/**
+	 * @return the transcript of the frame posted since the previous call, or null if none was posted
+	 */
+	public String takeFrame() {
+		if (!posted)
+			return null;
+
+		posted = false;
+		return "dirty " + postedDirty.toShortString() + "\n" + getDescription().substring(postedStart, postedEnd);
+	}
+
+	public long getLockCount() {
+		return lockCount;
+	}
+
+	@Override
+	public Canvas lockCanvas() {
+		return lockCanvas(null);
+	}
+
+	@Override
+	public Canvas lockCanvas(Rect dirty) {
+		lockedDirty.set(dirty == null ? frame : dirty);
+		lockedStart = getDescription().length();
+		locked = true;
+		lockCount++;
+		return canvas;
+	}
+
+	@Override
+	public void unlockCanvasAndPost(Canvas canvas) {
+		if (canvas != this.canvas || !locked)
+			throw new IllegalStateException("Posting a canvas that was not locked");
+
+		locked = false;
+		posted = true;
+		postedDirty.set(lockedDirty);
+		postedStart = lockedStart;
+		postedEnd = getDescription().length();
+	}
+
+	private String getDescription() {
+		return Shadows.shadowOf(canvas).getDescription();
+	}
+
+	@Override
+	public Rect getSurfaceFrame() {
+		return frame;
+	}
+
+	@Override
+	public Surface getSurface() {
+		return null;
+	}
+
+	@Override
+	public boolean isCreating() {
+		return false;
+	}
+
+	@Override
+	public void addCallback(Callback callback) {
+
+	}
+
+	@Override
+	public void removeCallback(Callback callback) {
+
+	}
+
+	@Override
+	public void setType(int type) {
+
+	}
+
+	@Override
+	public void setFixedSize(int width, int height) {
+
+	}
+
+	@Override
+	public void setSizeFromLayout() {
+
+	}
+
+	@Override
+	public void setFormat(int format) {
+
+	}
+
+	@Override
+	public void setKeepScreenOn(boolean screenOn) {
+
+	}
+}
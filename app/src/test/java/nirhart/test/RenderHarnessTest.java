@@ -0,0 +1,198 @@
+package nirhart.dripmysteps;
+
+import android.graphics.PixelFormat;
+import android.view.SurfaceHolder;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the wallpaper engine headless against a bitmap backed surface, on a virtual clock, at standard resolutions.
+ * Reports the wall time and the allocations of every frame and the bitmap bytes held, and compares the draw operations
+ * of a few frames with the golden transcripts in src/test/resources/golden.
+ * <p/>
+ * Robolectric 3.0 canvases do not rasterize: a draw only appends a line to the canvas description, and the pixels of the
+ * surface bitmap stay as they were allocated, so there is no image to compare. A golden frame is therefore the transcript
+ * of the draw operations. It catches a change in what is drawn where, with which bitmap, clip and shader matrix, but a
+ * harmless regrouping of the draw calls changes it too, and the goldens have to be recorded again after such a change.
+ * A missing golden skips the comparison. Run with -PrecordGoldens to write the goldens from the current frames instead.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class RenderHarnessTest {
+
+	private static final long FRAME = TimeUnit.SECONDS.toNanos(1) / 60;
+	private static final int FRAMES = 120;
+	// Frames compared with the goldens: the first one, the next one, and after the sea level and the wave moved
+	private static final int[] GOLDEN_FRAMES = {0, 1, 30, FRAMES - 1};
+	private static final int STEPS = 3750;
+	private static final File GOLDEN_DIR = new File("src/test/resources/golden");
+	private static final File REPORT = new File("build/reports/render/frames.csv");
+	private static final boolean RECORD_GOLDENS = Boolean.getBoolean("drip.recordGoldens");
+
+	private DripWallpaperService service;
+	private DripWallpaperService.DripWallpaperEngine engine;
+
+	@After
+	public void tearDown() {
+		if (engine != null) {
+			engine.onDestroy();
+		}
+		if (service != null) {
+			service.onDestroy();
+		}
+	}
+
+	@Test
+	public void render720p() throws IOException {
+		render("720p", 720, 1280);
+	}
+
+	@Test
+	public void render1080p() throws IOException {
+		render("1080p", 1080, 1920);
+	}
+
+	@Test
+	public void render1440p() throws IOException {
+		render("1440p", 1440, 2560);
+	}
+
+	private void render(String name, int width, int height) throws IOException {
+		final FakeSurfaceHolder holder = new FakeSurfaceHolder(width, height);
+		VirtualClock clock = new VirtualClock(FRAME);
+
+		service = Robolectric.setupService(DripWallpaperService.class);
+		service.clock = clock;
+		service.loadSettings();
+		engine = service.new DripWallpaperEngine() {
+			@Override
+			public SurfaceHolder getSurfaceHolder() {
+				return holder;
+			}
+		};
+		engine.onSurfaceChanged(holder, PixelFormat.RGBX_8888, width, height);
+		engine.onStepsCountFetched(STEPS);
+		holder.takeFrame();
+
+		long[] wallNanos = new long[FRAMES];
+		long[] allocatedBytes = new long[FRAMES];
+		String[] transcripts = new String[FRAMES];
+		for (int i = 0; i < FRAMES; i++) {
+			long frameTime = clock.advance(FRAME);
+
+			long bytes = getAllocatedBytes();
+			long start = System.nanoTime();
+			engine.renderFrame(frameTime);
+			wallNanos[i] = System.nanoTime() - start;
+			allocatedBytes[i] = getAllocatedBytes() - bytes;
+
+			// Outside the measured section, building the transcript allocates
+			String transcript = holder.takeFrame();
+			transcripts[i] = transcript != null ? transcript : "nothing drawn";
+		}
+
+		report(name, wallNanos, allocatedBytes, engine.getBitmapBytes());
+		compareGoldens(name, transcripts);
+	}
+
+	private void compareGoldens(String name, String[] transcripts) throws IOException {
+		StringBuilder actual = new StringBuilder();
+		for (int frame : GOLDEN_FRAMES) {
+			actual.append("frame ").append(frame).append('\n').append(transcripts[frame]).append("\n\n");
+		}
+
+		File golden = new File(GOLDEN_DIR, name + ".txt");
+		if (RECORD_GOLDENS) {
+			write(golden, actual.toString());
+			return;
+		}
+
+		// Not recorded yet, the frames are still measured and reported, only the comparison is skipped
+		Assume.assumeTrue("No golden " + golden + ", run with -PrecordGoldens to record it", golden.exists());
+		assertEquals("Frames differ from " + golden, read(golden), actual.toString());
+	}
+
+	private static void report(String name, long[] wallNanos, long[] allocatedBytes, int bitmapBytes) throws IOException {
+		long[] sorted = wallNanos.clone();
+		Arrays.sort(sorted);
+		long totalAllocated = 0;
+		for (long bytes : allocatedBytes) {
+			totalAllocated += bytes;
+		}
+
+		// The first frames run in the interpreter, the median is the figure to compare between builds
+		String line = String.format("%s,%d,%d,%d,%d,%d", name,
+				TimeUnit.NANOSECONDS.toMicros(sorted[sorted.length / 2]),
+				TimeUnit.NANOSECONDS.toMicros(sorted[sorted.length * 95 / 100]),
+				TimeUnit.NANOSECONDS.toMicros(sorted[sorted.length - 1]),
+				totalAllocated / allocatedBytes.length,
+				bitmapBytes);
+		boolean header = !REPORT.exists();
+		REPORT.getParentFile().mkdirs();
+		OutputStream out = new FileOutputStream(REPORT, true);
+		try {
+			if (header) {
+				out.write("name,median us,p95 us,max us,allocated bytes per frame,bitmap bytes\n".getBytes("UTF-8"));
+			}
+			out.write((line + "\n").getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * @return bytes allocated by this thread so far, or 0 where the JVM does not count them
+	 */
+	private static long getAllocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return 0;
+	}
+
+	private static String read(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] data = new byte[(int) file.length()];
+			int read = 0;
+			while (read < data.length) {
+				int n = in.read(data, read, data.length - read);
+				if (n < 0)
+					break;
+				read += n;
+			}
+			return new String(data, 0, read, "UTF-8");
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void write(File file, String text) throws IOException {
+		file.getParentFile().mkdirs();
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(text.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,242 @@
+package nirhart.dripmysteps;
+
+import android.graphics.PixelFormat;
+import android.view.SurfaceHolder;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Replays an input trace through the whole wallpaper engine, headless on the render harness surface and a virtual clock.
+ * The accelerometer events go through {@link SensorHelper}, so the filter and the duty cycle run as on a device,
+ * the counts go to the engine's steps listener, and every frame is governed, ticked and drawn by renderFrame.
+ * Reports the frame cost, the frames at every frame rate cap, the skipped frames and how long the drip and the water
+ * took to come to rest after the last record to build/reports/render/replay.csv, so builds can be compared on the
+ * same real session.
+ * <p/>
+ * A short synthetic session is replayed by default, a recorded one with
+ * ./gradlew :app:testDebugUnitTest -Ptrace=path/to/drip-trace.bin --tests '*TraceReplayTest'
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class TraceReplayTest {
+
+	private static final long FRAME = TimeUnit.SECONDS.toNanos(1) / 60;
+	// Ticking after the last record, long enough for the rotation and the water to settle
+	private static final long TAIL = TimeUnit.SECONDS.toNanos(10);
+	// The accelerometer period of the synthetic session
+	private static final long SENSOR_PERIOD = TimeUnit.MICROSECONDS.toNanos(SensorHelper.SAMPLING_PERIOD_US);
+	private static final float GRAVITY = 9.81f;
+	private static final int WIDTH = 1080, HEIGHT = 1920;
+	private static final String TRACE = System.getProperty("drip.trace", "");
+	private static final File REPORT = new File("build/reports/render/replay.csv");
+
+	private DripWallpaperService service;
+	private DripWallpaperService.DripWallpaperEngine engine;
+
+	@After
+	public void tearDown() {
+		if (engine != null) {
+			engine.onDestroy();
+			engine = null;
+		}
+		if (service != null) {
+			service.onDestroy();
+			service = null;
+		}
+	}
+
+	@Test
+	public void replaySyntheticSession() throws IOException {
+		Result result = replay("synthetic", new ByteArrayInputStream(syntheticTrace()));
+
+		// Held still for longer than the low rate delay, the sensor is idle and the frame rate drops
+		assertTrue(engine.getSensorHelper().isRotationIdle());
+		assertTrue(result.settledAfterNanos >= 0);
+		assertTrue(engine.getFpsCap() < FrameScheduler.FPS_MAX);
+		assertTrue(result.fpsCaps.containsKey(FrameScheduler.FPS_MAX));
+	}
+
+	@Test
+	public void replayIsDeterministic() throws IOException {
+		byte[] trace = syntheticTrace();
+		List<String> first = replay("deterministic 1", new ByteArrayInputStream(trace)).frames;
+		tearDown();
+		List<String> second = replay("deterministic 2", new ByteArrayInputStream(trace)).frames;
+
+		assertFalse(first.isEmpty());
+		assertEquals(first, second);
+	}
+
+	@Test
+	public void replayRecordedTraces() throws IOException {
+		for (String path : TRACE.split(",")) {
+			if (path.isEmpty())
+				continue;
+
+			tearDown();
+			replay(new File(path).getName(), new BufferedInputStream(new FileInputStream(path)));
+		}
+	}
+
+	/**
+	 * Upright for 3 seconds, turned to landscape over a second, then held still for 15 seconds, walking all along
+	 */
+	private static byte[] syntheticTrace() throws IOException {
+		VirtualClock clock = new VirtualClock(0);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		InputTraceWriter writer = new InputTraceWriter(bytes, clock);
+		int count = 3000;
+		writer.writeSteps(count);
+
+		long end = TimeUnit.SECONDS.toNanos(19);
+		for (long t = SENSOR_PERIOD; t <= end; t += SENSOR_PERIOD) {
+			clock.set(t);
+			double turn = Math.max(0, Math.min(1, (t - TimeUnit.SECONDS.toNanos(3)) / (double) TimeUnit.SECONDS.toNanos(1)));
+			double radians = turn * Math.PI / 2;
+			writer.writeSensor(GRAVITY * (float) Math.sin(radians), GRAVITY * (float) Math.cos(radians), t);
+			if (t % TimeUnit.SECONDS.toNanos(5) == 0) {
+				count += 10;
+				writer.writeSteps(count);
+			}
+		}
+		writer.close();
+		return bytes.toByteArray();
+	}
+
+	private Result replay(String name, InputStream in) throws IOException {
+		final FakeSurfaceHolder holder = new FakeSurfaceHolder(WIDTH, HEIGHT);
+		final VirtualClock clock = new VirtualClock(FRAME);
+
+		service = Robolectric.setupService(DripWallpaperService.class);
+		service.clock = clock;
+		service.loadSettings();
+		engine = service.new DripWallpaperEngine() {
+			@Override
+			public SurfaceHolder getSurfaceHolder() {
+				return holder;
+			}
+		};
+		engine.onSurfaceChanged(holder, PixelFormat.RGBX_8888, WIDTH, HEIGHT);
+
+		final SensorHelper sensorHelper = engine.getSensorHelper();
+		final LatencyHistogram frameCost = new LatencyHistogram("frame");
+		final Map<Integer, Integer> fpsCaps = new TreeMap<Integer, Integer>();
+		final List<String> frames = new ArrayList<String>();
+		final long[] lastRecord = new long[1];
+		final long[] settledSince = {-1};
+		long skipped = DripMetrics.FRAMES_SKIPPED.get();
+
+		InputTraceReader reader = new InputTraceReader(in);
+		TraceReplayer replayer = new TraceReplayer(reader, clock, FRAME, new TraceReplayer.Target() {
+			@Override
+			public void onSensorEvent(float x, float y, long eventNanos) {
+				sensorHelper.updatePoint(x, y, eventNanos);
+				lastRecord[0] = clock.nanoTime();
+			}
+
+			@Override
+			public void onStepsCount(int count) {
+				engine.onStepsCountFetched(count);
+				lastRecord[0] = clock.nanoTime();
+			}
+
+			@Override
+			public void onFrame(long frameTimeNanos) {
+				long start = System.nanoTime();
+				engine.renderFrame(frameTimeNanos);
+				frameCost.record(System.nanoTime() - start);
+				holder.takeFrame();
+
+				Integer count = fpsCaps.get(engine.getFpsCap());
+				fpsCaps.put(engine.getFpsCap(), count == null ? 1 : count + 1);
+
+				FrameState state = engine.getFrameState();
+				frames.add(state.getWaveX() + " " + state.getWaveY() + " " + state.getWaterRotation() + " " + Arrays.toString(Arrays.copyOf(state.getSurfaceHeights(), state.getSurfaceColumns()))
+						+ " " + state.isSettled() + " " + state.isFillSettled() + " " + engine.getFpsCap());
+
+				// The sea level keeps extrapolating the walk for a while by design, only the motion has to settle
+				if (!state.isSettled()) {
+					settledSince[0] = -1;
+				} else if (settledSince[0] < 0) {
+					settledSince[0] = frameTimeNanos;
+				}
+			}
+		});
+
+		try {
+			replayer.replay(TAIL);
+		} finally {
+			reader.close();
+		}
+
+		Result result = new Result();
+		result.fpsCaps = fpsCaps;
+		result.frames = frames;
+		result.settledAfterNanos = settledSince[0] < 0 ? -1 : Math.max(0, settledSince[0] - lastRecord[0]);
+		report(name, replayer, frameCost, DripMetrics.FRAMES_SKIPPED.get() - skipped, result);
+		return result;
+	}
+
+	private static void report(String name, TraceReplayer replayer, LatencyHistogram frameCost, long skipped, Result result) throws IOException {
+		StringBuilder caps = new StringBuilder();
+		for (Map.Entry<Integer, Integer> entry : result.fpsCaps.entrySet()) {
+			if (caps.length() > 0) {
+				caps.append(' ');
+			}
+			caps.append(entry.getKey()).append("fps:").append(entry.getValue());
+		}
+
+		String settled = result.settledAfterNanos < 0 ? "never" : String.valueOf(TimeUnit.NANOSECONDS.toMillis(result.settledAfterNanos));
+		String line = String.format("%s,%d,%d,%d,%d,%d,%d,%s,%s", name,
+				replayer.getRecordCount(),
+				replayer.getFrameCount(),
+				TimeUnit.NANOSECONDS.toMicros(frameCost.getPercentile(50)),
+				TimeUnit.NANOSECONDS.toMicros(frameCost.getPercentile(95)),
+				TimeUnit.NANOSECONDS.toMicros(frameCost.getMaxNanos()),
+				skipped,
+				settled,
+				caps);
+
+		boolean header = !REPORT.exists();
+		REPORT.getParentFile().mkdirs();
+		OutputStream out = new FileOutputStream(REPORT, true);
+		try {
+			if (header) {
+				out.write("name,records,frames,median us,p95 us,max us,skipped frames,settled after last record ms,frames by fps cap\n".getBytes("UTF-8"));
+			}
+			out.write((line + "\n").getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+
+	private static final class Result {
+		private Map<Integer, Integer> fpsCaps;
+		private long settledAfterNanos;
+		// The state of every frame, to compare runs
+		private List<String> frames;
+	}
+}
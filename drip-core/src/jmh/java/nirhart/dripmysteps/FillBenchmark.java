@@ -0,0 +1,54 @@
+package nirhart.dripmysteps;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU cost of mapping the steps count to the sea level, done every tick.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FillBenchmark {
+
+	private static final long FRAME = TimeUnit.SECONDS.toNanos(1) / 60;
+
+	private FillPredictor fillPredictor;
+	private long now;
+	private int count;
+
+	@Setup
+	public void setUp() {
+		fillPredictor = new FillPredictor();
+		now = FRAME;
+		count = 1000;
+		fillPredictor.onCount(count, now);
+	}
+
+	@Benchmark
+	public float getFill() {
+		count = (count + 7) % 10000;
+		return DripSimulation.getFill(count, 7500);
+	}
+
+	/**
+	 * Extrapolating and springing the displayed count, with a new count every five seconds of a walk
+	 */
+	@Benchmark
+	public float predictorAdvance() {
+		now += FRAME;
+		if (now % TimeUnit.SECONDS.toNanos(5) < FRAME) {
+			count += 9;
+			fillPredictor.onCount(count, now);
+		}
+		fillPredictor.advance(now);
+		return fillPredictor.getDisplayedCount();
+	}
+}
@@ -0,0 +1,107 @@
+package nirhart.dripmysteps;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU cost of the work done for every frame on the simulation thread.
+ * The clock advances by one frame per invocation, so the measured state is the steady animation, not a first frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FrameBenchmark {
+
+	@Param({"60", "30"})
+	public int fps;
+
+	private long frameNanos;
+	private long now;
+	private double angle;
+	private DripAnimator animator;
+	private DripAnimator rotationAnimator;
+	private WaterSurface waterSurface;
+	private DripSimulation simulation;
+	// Filled by every tick, as the engine fills its recycled states
+	private final FrameState state = new FrameState();
+
+	@Setup
+	public void setUp() {
+		frameNanos = TimeUnit.SECONDS.toNanos(1) / fps;
+		now = frameNanos;
+		angle = 0;
+
+		animator = new DripAnimator(1, 0.5f, 1080);
+		animator.setTideBounds(9, -9);
+		rotationAnimator = new DripAnimator(1, 0.5f, 1080);
+		waterSurface = new WaterSurface(WaterSurface.MAX_COLUMNS);
+		// Never degrade while measured, the full resolution is the cost to know
+		waterSurface.setBudgetNanos(Long.MAX_VALUE);
+
+		FillPredictor fillPredictor = new FillPredictor();
+		fillPredictor.onCount(3000, now);
+		WaterSurface simulationSurface = new WaterSurface(WaterSurface.MAX_COLUMNS);
+		simulationSurface.setBudgetNanos(Long.MAX_VALUE);
+		simulation = new DripSimulation(new DripAnimator(1, 0.5f, 1080), fillPredictor, simulationSurface, new DripSimulation.AngleSource() {
+			@Override
+			public boolean hasAngle() {
+				return true;
+			}
+
+			@Override
+			public double getAngle() {
+				return angle;
+			}
+		});
+		simulation.setGoal(7500);
+		simulation.setSeaBounds(1500, 500);
+		simulation.setTideBounds(9, -9);
+	}
+
+	/**
+	 * The whole tick: fill, rotation, sloshing and wave, with the phone slowly turning
+	 */
+	@Benchmark
+	public FrameState simulationTick() {
+		now += frameNanos;
+		angle = (angle + 0.5) % 360;
+		return simulation.tick(now, state);
+	}
+
+	/**
+	 * Wave phase and tide bounce only
+	 */
+	@Benchmark
+	public float waveAdvance() {
+		animator.advanceWave(frameNanos);
+		return animator.getMaskX() + animator.getMaskY();
+	}
+
+	/**
+	 * Easing the drip rotation toward a target that keeps moving away, so it never settles
+	 */
+	@Benchmark
+	public boolean followAngle() {
+		angle = (angle + 3) % 360;
+		return rotationAnimator.followAngle(angle, frameNanos);
+	}
+
+	/**
+	 * The water surface heightfield, under a changing tilt
+	 */
+	@Benchmark
+	public int waterSurfaceAdvance() {
+		angle = (angle + 0.5) % 360;
+		waterSurface.setTilt((float) Math.sin(Math.toRadians(angle)) * 20);
+		waterSurface.advance(frameNanos);
+		return waterSurface.getColumns();
+	}
+}
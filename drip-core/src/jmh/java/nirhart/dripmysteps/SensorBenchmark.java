@@ -0,0 +1,73 @@
+package nirhart.dripmysteps;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU cost of a single accelerometer event, at the rates the sensor is registered with.
+ * The events are a synthetic walk, gravity slowly turning with noise on top, generated once up front.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SensorBenchmark {
+
+	private static final int EVENTS = 4096;
+
+	/**
+	 * Event period in microseconds: the batched active rate, the low rate, and a fast uncapped sensor
+	 */
+	@Param({"100000", "500000", "5000"})
+	public int periodMicros;
+
+	private final float[] xs = new float[EVENTS];
+	private final float[] ys = new float[EVENTS];
+	private GravityFilter filter;
+	private long periodNanos;
+	private long timestamp;
+	private int index;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(42);
+		for (int i = 0; i < EVENTS; i++) {
+			double angle = Math.toRadians(i * 360.0 / EVENTS);
+			xs[i] = (float) (9.81 * Math.cos(angle) + random.nextGaussian() * 0.8);
+			ys[i] = (float) (9.81 * Math.sin(angle) + random.nextGaussian() * 0.8);
+		}
+
+		filter = new GravityFilter();
+		periodNanos = TimeUnit.MICROSECONDS.toNanos(periodMicros);
+		timestamp = periodNanos;
+		index = 0;
+	}
+
+	/**
+	 * Filter one event and publish its angle
+	 */
+	@Benchmark
+	public double updatePoint() {
+		timestamp += periodNanos;
+		index = (index + 1) & (EVENTS - 1);
+		filter.update(xs[index], ys[index], timestamp);
+		return filter.getAngle();
+	}
+
+	/**
+	 * The angle math alone
+	 */
+	@Benchmark
+	public double getAngle() {
+		index = (index + 1) & (EVENTS - 1);
+		return GravityFilter.getAngle(xs[index], ys[index]);
+	}
+}
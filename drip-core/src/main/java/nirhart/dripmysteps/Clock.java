@@ -0,0 +1,19 @@
+package nirhart.dripmysteps;
+
+/**
+ * Source of monotonic time, so the animation can also be driven by a virtual clock
+ */
+public interface Clock {
+
+	Clock SYSTEM = new Clock() {
+		@Override
+		public long nanoTime() {
+			return System.nanoTime();
+		}
+	};
+
+	/**
+	 * @return the current time in nanoseconds, only differences between values are meaningful
+	 */
+	long nanoTime();
+}
@@ -0,0 +1,44 @@
+package nirhart.dripmysteps;
+
+/**
+ * Geometry of scaling an image to fill a destination, cropping whatever is left outside of it.
+ */
+public class CropGeometry {
+
+	/**
+	 * Find where the scaled source lands in the destination, centered and covering all of it
+	 *
+	 * @param out - left, top, right and bottom of the scaled source, in destination coordinates
+	 */
+	public static void centerCrop(int sourceWidth, int sourceHeight, int destWidth, int destHeight, float[] out) {
+		float xScale = (float) destWidth / sourceWidth;
+		float yScale = (float) destHeight / sourceHeight;
+		float scale = Math.max(xScale, yScale);
+
+		float scaledWidth = scale * sourceWidth;
+		float scaledHeight = scale * sourceHeight;
+
+		float left = (destWidth - scaledWidth) / 2;
+		float top = (destHeight - scaledHeight) / 2;
+
+		out[0] = left;
+		out[1] = top;
+		out[2] = left + scaledWidth;
+		out[3] = top + scaledHeight;
+	}
+
+	/**
+	 * Find the biggest power of 2 sample size that still keeps the decoded source
+	 * at least as big as the scaled bitmap, so no quality is lost
+	 */
+	public static int calculateInSampleSize(int sourceWidth, int sourceHeight, int destWidth, int destHeight) {
+		float scale = Math.max((float) destWidth / sourceWidth, (float) destHeight / sourceHeight);
+		int inSampleSize = 1;
+
+		while (scale * inSampleSize * 2 <= 1) {
+			inSampleSize *= 2;
+		}
+
+		return inSampleSize;
+	}
+}
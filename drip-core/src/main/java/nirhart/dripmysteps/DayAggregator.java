@@ -0,0 +1,203 @@
+package nirhart.dripmysteps;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps today's steps count in hourly buckets so every Fitness read only has to cover the time since the last one.
+ * Each incremental read also covers the last closed hour again, and a different count there means data was
+ * backfilled, in which case the whole day is read again. A new day or a time zone change also starts a full read.
+ * On a new day the previous day is first read again from its open hour up to its midnight, so the steps of its last
+ * hour taken after the last read are not lost.
+ * Not thread safe, should be used from a single thread.
+ */
+public class DayAggregator {
+
+	public static final long HOUR = TimeUnit.HOURS.toMillis(1);
+	// A day is 25 hours long when daylight saving time ends
+	private static final int MAX_HOURS_IN_DAY = 25;
+
+	private final int[] hourly = new int[MAX_HOURS_IN_DAY];
+	private long dayStart;
+	private String zoneId;
+	private int zoneOffset;
+	private long lastEnd;
+	private long queryEnd;
+	private boolean closingDay;
+	private boolean fullRead = true;
+	private boolean mismatch;
+	private int openHour;
+	private long fullReads;
+	private long incrementalReads;
+
+	/**
+	 * @return the start of the day of the given time, in the given time zone
+	 */
+	public static long startOfDay(long time, TimeZone zone) {
+		Calendar cal = Calendar.getInstance(zone);
+		cal.setTimeInMillis(time);
+		cal.set(Calendar.HOUR_OF_DAY, 0);
+		cal.set(Calendar.MINUTE, 0);
+		cal.set(Calendar.SECOND, 0);
+		cal.set(Calendar.MILLISECOND, 0);
+		return cal.getTimeInMillis();
+	}
+
+	/**
+	 * Start a read, handling midnight rollover and time zone changes
+	 *
+	 * @param now  - the current time
+	 * @param zone - the current time zone
+	 * @return the start of the window to read, the window should be read in one hour buckets until {@link #getQueryEnd()}
+	 */
+	public long beginQuery(long now, TimeZone zone) {
+		long start = startOfDay(now, zone);
+		int offset = zone.getOffset(start);
+		queryEnd = now;
+		closingDay = false;
+		mismatch = false;
+
+		boolean sameZone = zone.getID().equals(zoneId) && zone.getOffset(dayStart) == zoneOffset;
+		if (start > dayStart && sameZone && !fullRead) {
+			long dayEnd = startOfDay(dayStart + MAX_HOURS_IN_DAY * HOUR, zone);
+			if (lastEnd < dayEnd) {
+				// A new day, first read the rest of the open hour of the previous one, up to its midnight
+				closingDay = true;
+				queryEnd = dayEnd;
+				openHour = hourIndex(lastEnd);
+				return dayStart + openHour * HOUR;
+			}
+		}
+
+		if (start != dayStart || !zone.getID().equals(zoneId) || offset != zoneOffset) {
+			dayStart = start;
+			zoneId = zone.getID();
+			zoneOffset = offset;
+			requestFullRead();
+		}
+
+		if (fullRead) {
+			openHour = 0;
+			return dayStart;
+		}
+
+		// Read the open hour again, and the hour before it as a checksum for backfilled data
+		openHour = hourIndex(lastEnd);
+		return dayStart + Math.max(0, openHour - 1) * HOUR;
+	}
+
+	/**
+	 * @return the end of the window planned by the last {@link #beginQuery(long, TimeZone)}
+	 */
+	public long getQueryEnd() {
+		return queryEnd;
+	}
+
+	/**
+	 * @return true if the read planned by the last {@link #beginQuery(long, TimeZone)} closes the previous day,
+	 * today still has to be read after it
+	 */
+	public boolean isClosingDay() {
+		return closingDay;
+	}
+
+	/**
+	 * Apply one hour bucket of the current read
+	 *
+	 * @param bucketStart - start time of the bucket
+	 * @param steps       - steps in the bucket
+	 */
+	public void onBucket(long bucketStart, int steps) {
+		int index = hourIndex(bucketStart);
+		if (index < 0 || index >= MAX_HOURS_IN_DAY)
+			return;
+
+		if (!fullRead && index < openHour && hourly[index] != steps) {
+			mismatch = true;
+		}
+		hourly[index] = steps;
+	}
+
+	/**
+	 * Finish a read that covered everything until end
+	 *
+	 * @return false if the read found backfilled data, in which case the whole day should be read again
+	 */
+	public boolean endQuery(long end) {
+		if (fullRead) {
+			fullReads++;
+		} else {
+			incrementalReads++;
+		}
+
+		if (closingDay) {
+			// The previous day is complete, move on to the day that follows it
+			closingDay = false;
+			dayStart = end;
+			requestFullRead();
+			return true;
+		}
+
+		if (mismatch) {
+			requestFullRead();
+			return false;
+		}
+
+		fullRead = false;
+		lastEnd = end;
+		return true;
+	}
+
+	/**
+	 * Forget everything, the next read covers the whole day
+	 */
+	public void requestFullRead() {
+		fullRead = true;
+		lastEnd = dayStart;
+		for (int i = 0; i < hourly.length; i++) {
+			hourly[i] = 0;
+		}
+	}
+
+	/**
+	 * @return today's steps count according to the reads so far
+	 */
+	public int getTotal() {
+		int total = 0;
+		for (int steps : hourly) {
+			total += steps;
+		}
+		return total;
+	}
+
+	/**
+	 * @return steps in the given hour of the day
+	 */
+	public int getHourSteps(int hour) {
+		return hour >= 0 && hour < MAX_HOURS_IN_DAY ? hourly[hour] : 0;
+	}
+
+	public long getDayStart() {
+		return dayStart;
+	}
+
+	/**
+	 * @return the end of the last successful read
+	 */
+	public long getLastEnd() {
+		return lastEnd;
+	}
+
+	public long getFullReadCount() {
+		return fullReads;
+	}
+
+	public long getIncrementalReadCount() {
+		return incrementalReads;
+	}
+
+	private int hourIndex(long time) {
+		return (int) ((time - dayStart) / HOUR);
+	}
+}
@@ -0,0 +1,148 @@
+package nirhart.dripmysteps;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time based animation of the drip water.
+ * Advances the wave phase, the tide oscillation and the drip rotation from elapsed time,
+ * so the motion speed does not depend on how often frames are drawn.
+ * Not thread safe, should be advanced from a single thread.
+ */
+public class DripAnimator {
+
+	/**
+	 * The frame rate the per frame speeds were tuned for
+	 */
+	public static final int REFERENCE_FPS = 60;
+
+	private static final float NANOS_IN_SECOND = TimeUnit.SECONDS.toNanos(1);
+	// Longer gaps (e.g. after the wallpaper was hidden) are treated as a single long frame to avoid jumps
+	private static final long MAX_DELTA_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+	private static final int FOLLOW_SCREEN_ROTATION_FACTOR = 40; // 1 means follow immediately, bigger number means slowly follow the screen rotation
+	private static final double MAX_ANGLE_CHANGE_IN_FRAME = 1.5;
+	private static final double ROTATION_THRESHOLD = 2;
+
+	private final float waveSpeed;
+	private final double followRatePerFrame;
+	private final float waveWidth;
+	private float tideSpeed;
+	private float tide, low;
+	private float maskX, maskY;
+	private double phoneAngle;
+
+	/**
+	 * @param waveStepPerFrame - horizontal wave movement in pixels per reference frame
+	 * @param tideStepPerFrame - vertical tide movement in pixels per reference frame
+	 * @param waveWidth        - width of the wave texture, the wave phase wraps around it
+	 */
+	public DripAnimator(float waveStepPerFrame, float tideStepPerFrame, float waveWidth) {
+		this.waveSpeed = waveStepPerFrame * REFERENCE_FPS;
+		this.tideSpeed = tideStepPerFrame * REFERENCE_FPS;
+		this.waveWidth = waveWidth;
+		this.followRatePerFrame = 1.0 / FOLLOW_SCREEN_ROTATION_FACTOR;
+	}
+
+	/**
+	 * Set the bounds of the tide oscillation
+	 *
+	 * @param tide - highest vertical offset of the wave
+	 * @param low  - lowest vertical offset of the wave
+	 */
+	public void setTideBounds(float tide, float low) {
+		this.tide = tide;
+		this.low = low;
+	}
+
+	/**
+	 * Move the wave horizontally and vertically according to the elapsed time
+	 *
+	 * @param deltaNanos - time passed since the previous call
+	 */
+	public void advanceWave(long deltaNanos) {
+		float seconds = toSeconds(deltaNanos);
+
+		// Move the wave horizontally
+		maskX += waveSpeed * seconds;
+		if (waveWidth > 0) {
+			maskX %= waveWidth;
+		}
+
+		// Move the wave vertically, bouncing between the low and tide bounds
+		maskY += tideSpeed * seconds;
+		if (maskY > tide && tideSpeed > 0) {
+			tideSpeed *= -1;
+		}
+
+		if (maskY < low && tideSpeed < 0) {
+			tideSpeed *= -1;
+		}
+	}
+
+	/**
+	 * Ease the phone angle towards the gravity angle according to the elapsed time
+	 *
+	 * @param angle      - the gravity angle to follow
+	 * @param deltaNanos - time passed since the previous call
+	 * @return true if the phone angle was changed
+	 */
+	public boolean followAngle(double angle, long deltaNanos) {
+		int d = (int) Math.abs(angle - phoneAngle) % 360;
+		int r = d > 180 ? 360 - d : d;
+
+		// Change the angle only when there is a certain threshold from the previous angle
+		// this is in order to avoid vibration in the drip
+		if (r <= ROTATION_THRESHOLD)
+			return false;
+
+		double frames = toSeconds(deltaNanos) * REFERENCE_FPS;
+		// Fraction of the remaining distance to cover, compounded over the elapsed frames
+		double follow = 1 - Math.pow(1 - followRatePerFrame, frames);
+		double maxChange = MAX_ANGLE_CHANGE_IN_FRAME * frames;
+
+		double mAngle = phoneAngle;
+		double plus = angle - mAngle;
+		double minus = 360 - angle + mAngle;
+
+		// Calculate the new angle
+		if (mAngle > angle) {
+			plus = 360 + plus;
+			minus = minus - 360;
+		}
+		// Find what is the shortest path to the new angle (+ or -)
+		if (plus < minus) {
+			mAngle += Math.min(maxChange, plus * follow);
+		} else {
+			mAngle -= Math.min(maxChange, minus * follow);
+		}
+
+		phoneAngle = mAngle;
+
+		if (phoneAngle > 360) {
+			phoneAngle = phoneAngle - 360;
+		}
+
+		if (phoneAngle < 0) {
+			phoneAngle = 360 + phoneAngle;
+		}
+
+		return true;
+	}
+
+	public float getMaskX() {
+		return maskX;
+	}
+
+	public float getMaskY() {
+		return maskY;
+	}
+
+	public double getPhoneAngle() {
+		return phoneAngle;
+	}
+
+	private static float toSeconds(long deltaNanos) {
+		if (deltaNanos <= 0)
+			return 0;
+		return Math.min(deltaNanos, MAX_DELTA_NANOS) / NANOS_IN_SECOND;
+	}
+}
@@ -0,0 +1,182 @@
+package nirhart.dripmysteps;
+
+/**
+ * One simulation tick of a drip: the sea level from the steps count, the drip rotation toward the gravity angle,
+ * the water surface sloshing and the wave motion, published as a {@link FrameState}.
+ * Ticked from the simulation thread, the goal, the sea bounds and the screen rotation may be set from any thread.
+ */
+public class DripSimulation {
+
+	/**
+	 * Allow a minimum fill of 5% so the drip will not be empty
+	 */
+	public static final float MIN_FILL = 0.05f;
+
+	/**
+	 * Where the gravity angle comes from, e.g. the accelerometer or a recorded trace
+	 */
+	public interface AngleSource {
+		/**
+		 * @return true if an angle was measured
+		 */
+		boolean hasAngle();
+
+		/**
+		 * @return the latest gravity angle in degrees
+		 */
+		double getAngle();
+	}
+
+	private final DripAnimator animator;
+	private final FillPredictor fillPredictor;
+	private final WaterSurface waterSurface;
+	private final AngleSource angleSource;
+	private volatile int stepsGoal;
+	private volatile float zeroLevel, topLevel;
+	private volatile float offsetY;
+	private volatile int screenRotation;
+	private volatile boolean rotationSettled;
+	private float tide, low;
+	private double finalAngle = 0;
+	private float waterRotation;
+	private long lastTickNanos;
+
+	/**
+	 * @param animator      - moves the wave and the drip rotation
+	 * @param fillPredictor - animates the sea level between the steps counts
+	 * @param waterSurface  - the surface heights, sloshed by the tilt
+	 * @param angleSource   - the gravity angle the drip follows
+	 */
+	public DripSimulation(DripAnimator animator, FillPredictor fillPredictor, WaterSurface waterSurface, AngleSource angleSource) {
+		this.animator = animator;
+		this.fillPredictor = fillPredictor;
+		this.waterSurface = waterSurface;
+		this.angleSource = angleSource;
+	}
+
+	/**
+	 * Map a steps count to the part of the drip filled with water
+	 *
+	 * @param count - steps count
+	 * @param goal  - steps goal, a full drip
+	 * @return fill between {@link #MIN_FILL} and 1
+	 */
+	public static float getFill(float count, int goal) {
+		float percent = goal > 0 ? count / goal : 1;
+
+		if (percent > 1)
+			percent = 1;
+
+		if (percent < MIN_FILL)
+			percent = MIN_FILL;
+
+		return percent;
+	}
+
+	public void setGoal(int stepsGoal) {
+		this.stepsGoal = stepsGoal;
+	}
+
+	/**
+	 * @param zeroLevel - vertical wave offset of an empty drip
+	 * @param topLevel  - vertical wave offset of a full drip
+	 */
+	public void setSeaBounds(float zeroLevel, float topLevel) {
+		this.zeroLevel = zeroLevel;
+		this.topLevel = topLevel;
+	}
+
+	/**
+	 * @param tide - highest vertical offset of the wave
+	 * @param low  - lowest vertical offset of the wave
+	 */
+	public void setTideBounds(float tide, float low) {
+		this.tide = tide;
+		this.low = low;
+	}
+
+	/**
+	 * @param degrees - screen rotation in degrees
+	 */
+	public void setScreenRotation(int degrees) {
+		this.screenRotation = degrees;
+	}
+
+	/**
+	 * Advance everything to the given time
+	 *
+	 * @param nowNanos - time of the frame the tick prepares
+	 * @param out      - the state to fill, owned by the calling thread
+	 * @return out, filled with the state to draw
+	 */
+	public FrameState tick(long nowNanos, FrameState out) {
+		long deltaNanos = lastTickNanos == 0 ? 0 : nowNanos - lastTickNanos;
+		lastTickNanos = nowNanos;
+
+		// Animate the sea level between the steps counts
+		fillPredictor.advance(nowNanos);
+		applyFill();
+		followAngle(deltaNanos);
+		// Slosh the water toward the real gravity level, the drip rotation lags behind it
+		waterSurface.setTilt((float) (finalAngle - animator.getPhoneAngle()));
+		waterSurface.advance(deltaNanos);
+
+		// The settled flags and the heights travel with the frame, so the UI thread never asks the simulation objects
+		out.set(animator.getMaskX(), animator.getMaskY() + offsetY, waterRotation, rotationSettled && waterSurface.isCalm(), fillPredictor.isSettled(), nowNanos);
+		out.setSurface(waterSurface);
+
+		// Move the wave according to the time passed since the previous tick
+		animator.setTideBounds(tide, low);
+		animator.advanceWave(deltaNanos);
+		return out;
+	}
+
+	/**
+	 * Map the displayed steps count to the sea level, according to the current goal and sea levels
+	 */
+	public void applyFill() {
+		if (!fillPredictor.hasCount()) {
+			// Nothing known yet, wait at the bottom
+			offsetY = zeroLevel;
+			return;
+		}
+
+		float percent = getFill(fillPredictor.getDisplayedCount(), stepsGoal);
+		offsetY = zeroLevel + percent * (topLevel - zeroLevel);
+	}
+
+	/**
+	 * @return vertical wave offset of the current sea level
+	 */
+	public float getOffsetY() {
+		return offsetY;
+	}
+
+	/**
+	 * @return false while the drip still turns toward the gravity angle
+	 */
+	public boolean isRotationSettled() {
+		return rotationSettled;
+	}
+
+	public FillPredictor getFillPredictor() {
+		return fillPredictor;
+	}
+
+	public WaterSurface getWaterSurface() {
+		return waterSurface;
+	}
+
+	private void followAngle(long deltaNanos) {
+		// Read the angle once per tick
+		if (angleSource.hasAngle()) {
+			finalAngle = angleSource.getAngle();
+		}
+
+		boolean rotated = animator.followAngle(finalAngle, deltaNanos);
+		rotationSettled = !rotated;
+		if (rotated) {
+			waterRotation = 90 - (float) animator.getPhoneAngle() - screenRotation;
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package nirhart.dripmysteps;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when the next Fitness fetch may start.
+ * Consecutive failures back off exponentially with jitter, so a failing Play Services is not hammered with retries,
+ * and the circuit is open while the client is not connected, so no fetch starts that can only fail.
+ * Not thread safe, the owner should synchronize.
+ */
+public class FetchBackoff {
+
+	public static final long BASE_DELAY = TimeUnit.SECONDS.toMillis(15);
+	public static final long MAX_DELAY = TimeUnit.MINUTES.toMillis(30);
+
+	private final Random random;
+	private boolean connected;
+	private int failures;
+	private long nextAttemptTime;
+
+	/**
+	 * @param random - source of the jitter
+	 */
+	public FetchBackoff(Random random) {
+		this.random = random;
+	}
+
+	/**
+	 * @param now - current time, in the same time base as the other calls
+	 * @return true if a fetch may start now
+	 */
+	public boolean canFetch(long now) {
+		return connected && now >= nextAttemptTime;
+	}
+
+	/**
+	 * Open or close the circuit according to the client connection, a new connection also forgets the failures
+	 */
+	public void setConnected(boolean connected) {
+		if (connected && !this.connected) {
+			failures = 0;
+			nextAttemptTime = 0;
+		}
+		this.connected = connected;
+	}
+
+	public void onSuccess() {
+		failures = 0;
+		nextAttemptTime = 0;
+	}
+
+	/**
+	 * @param now - time of the failure
+	 * @return the time until the next fetch may start
+	 */
+	public long onFailure(long now) {
+		failures++;
+		long delay = getDelay(failures);
+		// Equal jitter, keep at least half of the delay so retries still back off
+		delay = delay / 2 + (long) (random.nextDouble() * (delay / 2));
+		nextAttemptTime = now + delay;
+		return delay;
+	}
+
+	/**
+	 * @return the delay before jitter after the given number of consecutive failures
+	 */
+	public static long getDelay(int failures) {
+		if (failures <= 0)
+			return 0;
+
+		// Stop doubling once the cap is reached, so the shift never overflows
+		int shift = Math.min(failures - 1, 20);
+		return Math.min(MAX_DELAY, BASE_DELAY << shift);
+	}
+
+	public boolean isConnected() {
+		return connected;
+	}
+
+	public int getFailures() {
+		return failures;
+	}
+
+	public long getNextAttemptTime() {
+		return nextAttemptTime;
+	}
+}
@@ -0,0 +1,150 @@
+package nirhart.dripmysteps;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Animates the displayed steps count between authoritative counts.
+ * The walking cadence is estimated from the recent counts, the count is extrapolated with it
+ * and the displayed count follows the extrapolation with a critically damped spring, so it rises
+ * smoothly during a walk and settles on the real count without jumps.
+ * The extrapolation slows down over {@link #EXTRAPOLATION_TIME}, so it overshoots at most
+ * cadence * {@link #EXTRAPOLATION_TIME} steps when the walk stops between counts.
+ * Thread safe, counts may come from any thread.
+ */
+public class FillPredictor {
+
+	/**
+	 * Time constant of the extrapolation decay, in seconds
+	 */
+	public static final float EXTRAPOLATION_TIME = 120;
+	/**
+	 * Fastest cadence considered a real walk or run, in steps per second
+	 */
+	public static final float MAX_CADENCE = 4;
+
+	private static final float NANOS_IN_SECOND = TimeUnit.SECONDS.toNanos(1);
+	// Time constant of the cadence average, in seconds
+	private static final float CADENCE_TIME = 60;
+	// Counts closer than that are merged, the step counter reports every few steps
+	private static final float MIN_SAMPLE_INTERVAL = 1;
+	// Natural frequency of the spring, in radians per second
+	private static final float SPRING_FREQUENCY = 3;
+	private static final float MAX_STEP = 1f / DripAnimator.REFERENCE_FPS;
+	// Longer gaps (e.g. after the wallpaper was hidden) are not simulated, the spring settles right away
+	private static final float MAX_DELTA = 1;
+	private static final float SETTLE_DISTANCE = 0.5f;
+
+	private boolean hasCount;
+	private int count;
+	private long countTimeNanos;
+	// The newest count, may be newer than count when it was too close to measure a cadence
+	private int latestCount;
+	private float cadence;
+	private float position;
+	private float velocity;
+	private float target;
+	private long lastAdvanceNanos;
+
+	/**
+	 * A new authoritative count, the first one is shown right away
+	 *
+	 * @param count    - today's steps count
+	 * @param nowNanos - time of the count, in the {@link System#nanoTime()} time base
+	 */
+	public synchronized void onCount(int count, long nowNanos) {
+		if (!hasCount || count < this.count) {
+			// First count or a new day, nothing to animate from
+			hasCount = true;
+			this.count = count;
+			latestCount = count;
+			countTimeNanos = nowNanos;
+			cadence = 0;
+			position = count;
+			velocity = 0;
+			return;
+		}
+
+		latestCount = count;
+		float seconds = (nowNanos - countTimeNanos) / NANOS_IN_SECOND;
+		if (seconds < MIN_SAMPLE_INTERVAL) {
+			// Too close to measure a cadence, the next sample measures the steps of this one too
+			return;
+		}
+
+		// Time weighted average, a long gap replaces the old estimate almost entirely
+		float rate = Math.min(MAX_CADENCE, (count - this.count) / seconds);
+		float weight = 1 - (float) Math.exp(-seconds / CADENCE_TIME);
+		cadence += weight * (rate - cadence);
+
+		this.count = count;
+		countTimeNanos = nowNanos;
+	}
+
+	/**
+	 * Move the displayed count toward the extrapolated count
+	 *
+	 * @param nowNanos - current time, in the {@link System#nanoTime()} time base
+	 */
+	public synchronized void advance(long nowNanos) {
+		if (!hasCount) {
+			lastAdvanceNanos = nowNanos;
+			return;
+		}
+
+		float delta = lastAdvanceNanos == 0 ? 0 : (nowNanos - lastAdvanceNanos) / NANOS_IN_SECOND;
+		lastAdvanceNanos = nowNanos;
+
+		target = getPredictedCount(nowNanos);
+		if (delta > MAX_DELTA) {
+			position = target;
+			velocity = 0;
+			return;
+		}
+
+		// Critically damped spring, integrated in small steps so it stays stable at low frame rates
+		float stiffness = SPRING_FREQUENCY * SPRING_FREQUENCY;
+		float damping = 2 * SPRING_FREQUENCY;
+		while (delta > 0) {
+			float step = Math.min(delta, MAX_STEP);
+			float acceleration = stiffness * (target - position) - damping * velocity;
+			velocity += acceleration * step;
+			position += velocity * step;
+			delta -= step;
+		}
+	}
+
+	/**
+	 * @return the extrapolated count at the given time, before smoothing
+	 */
+	public synchronized float getPredictedCount(long nowNanos) {
+		float seconds = Math.max(0, (nowNanos - countTimeNanos) / NANOS_IN_SECOND);
+		float predicted = count + cadence * EXTRAPOLATION_TIME * (1 - (float) Math.exp(-seconds / EXTRAPOLATION_TIME));
+		// Never below a count that was already reported
+		return Math.max(latestCount, predicted);
+	}
+
+	/**
+	 * @return the count to show
+	 */
+	public synchronized float getDisplayedCount() {
+		return position;
+	}
+
+	/**
+	 * @return the estimated cadence, in steps per second
+	 */
+	public synchronized float getCadence() {
+		return cadence;
+	}
+
+	public synchronized boolean hasCount() {
+		return hasCount;
+	}
+
+	/**
+	 * @return true if the displayed count rests on the extrapolated count, so nothing visible is animated
+	 */
+	public synchronized boolean isSettled() {
+		return Math.abs(position - target) < SETTLE_DISTANCE && Math.abs(velocity) < SETTLE_DISTANCE;
+	}
+}
@@ -0,0 +1,50 @@
+package nirhart.dripmysteps;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands the frame states from the simulation thread to the UI thread through three recycled states, nothing is allocated.
+ * The simulation thread fills its back state and swaps it with the middle one, the UI thread swaps its front state with
+ * the middle one when a newer state was published, so each thread only ever touches a state it owns.
+ * One thread publishes and one thread acquires.
+ */
+public class FrameExchange {
+
+	// Set on the middle index until the UI thread takes the state
+	private static final int FRESH = 4;
+	private static final int INDEX = 3;
+
+	private final FrameState[] states = {new FrameState(), new FrameState(), new FrameState()};
+	private final AtomicInteger middle = new AtomicInteger(1);
+	// Owned by the publishing thread
+	private int back = 0;
+	// Owned by the acquiring thread
+	private int front = 2;
+
+	/**
+	 * @return the state to fill before publishing it, from the publishing thread only
+	 */
+	public FrameState getBack() {
+		return states[back];
+	}
+
+	/**
+	 * Hand the filled back state over, the next one to fill is the state the acquiring thread no longer holds
+	 */
+	public void publish() {
+		back = middle.getAndSet(back | FRESH) & INDEX;
+	}
+
+	/**
+	 * From the acquiring thread only
+	 *
+	 * @return the latest published state, or the one acquired before if nothing newer was published.
+	 * Valid until the next call, must not be held across calls.
+	 */
+	public FrameState acquire() {
+		if ((middle.get() & FRESH) != 0) {
+			front = middle.getAndSet(front) & INDEX;
+		}
+		return states[front];
+	}
+}
@@ -0,0 +1,82 @@
+package nirhart.dripmysteps;
+
+/**
+ * Picks the frame budget from what moves on screen, the power mode chosen by the user and the battery state.
+ * A still scene needs few frames, and a low battery or the system power saver steps the power mode down.
+ */
+public class FrameRateGovernor {
+
+	public static final int POWER_MODE_PERFORMANCE = 0;
+	public static final int POWER_MODE_BALANCED = 1;
+	public static final int POWER_MODE_BATTERY_SAVER = 2;
+
+	/**
+	 * The drip rotates or the sea level moves
+	 */
+	public static final int ACTIVITY_MOVING = 0;
+	/**
+	 * Only the wave moves, with the tide
+	 */
+	public static final int ACTIVITY_WAVE = 1;
+	/**
+	 * Only the wave drifts sideways, the tide is disabled
+	 */
+	public static final int ACTIVITY_CALM = 2;
+
+	/**
+	 * At or below this battery level, when not charging, the power mode steps down
+	 */
+	public static final int LOW_BATTERY_LEVEL = 15;
+	/**
+	 * At or below this battery level, when not charging, the budget is capped at {@link #CRITICAL_BATTERY_FPS}
+	 */
+	public static final int CRITICAL_BATTERY_LEVEL = 5;
+	public static final int CRITICAL_BATTERY_FPS = 10;
+
+	// Frames per second by power mode and then by activity
+	private static final int[][] BUDGETS = {
+			{60, 60, 30},
+			{60, 30, 15},
+			{30, 15, 10}
+	};
+
+	/**
+	 * @param powerMode    - one of the POWER_MODE constants
+	 * @param activity     - one of the ACTIVITY constants
+	 * @param batteryLevel - battery level in percents, or a negative value if unknown
+	 * @param charging     - true if the device is plugged in
+	 * @param powerSave    - true if the system power saver is on
+	 * @return the highest frame rate to draw at
+	 */
+	public static int selectFps(int powerMode, int activity, int batteryLevel, boolean charging, boolean powerSave) {
+		if (powerMode < POWER_MODE_PERFORMANCE || powerMode > POWER_MODE_BATTERY_SAVER)
+			powerMode = POWER_MODE_BALANCED;
+		if (activity < ACTIVITY_MOVING || activity > ACTIVITY_CALM)
+			activity = ACTIVITY_MOVING;
+
+		boolean lowBattery = !charging && batteryLevel >= 0 && batteryLevel <= LOW_BATTERY_LEVEL;
+		if (powerSave || lowBattery) {
+			powerMode = Math.min(POWER_MODE_BATTERY_SAVER, powerMode + 1);
+		}
+
+		int fps = BUDGETS[powerMode][activity];
+		if (!charging && batteryLevel >= 0 && batteryLevel <= CRITICAL_BATTERY_LEVEL) {
+			fps = Math.min(fps, CRITICAL_BATTERY_FPS);
+		}
+		return fps;
+	}
+
+	/**
+	 * @param rotating     - true if the drip is still turning toward the phone angle
+	 * @param rotationIdle - true if the phone did not move for a while
+	 * @param fillSettled  - true if the sea level rests
+	 * @param tide         - true if the tide moves the wave vertically
+	 * @return one of the ACTIVITY constants
+	 */
+	public static int getActivity(boolean rotating, boolean rotationIdle, boolean fillSettled, boolean tide) {
+		// A phone in the hand may turn any moment, keep it responsive until the sensor goes idle
+		if (rotating || !rotationIdle || !fillSettled)
+			return ACTIVITY_MOVING;
+		return tide ? ACTIVITY_WAVE : ACTIVITY_CALM;
+	}
+}
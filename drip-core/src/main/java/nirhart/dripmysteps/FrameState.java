@@ -0,0 +1,98 @@
+package nirhart.dripmysteps;
+
+/**
+ * Snapshot of everything the renderer needs to draw one frame.
+ * The simulation thread fills a state it owns every tick and hands it to the UI thread through a {@link FrameExchange},
+ * which applies it to its own paint/shader objects, so no mutable drawing objects are shared between threads.
+ * The states are recycled, a state is only written by the thread that owns it and never allocated per tick.
+ */
+public final class FrameState {
+
+	private final float[] surfaceHeights = new float[WaterSurface.MAX_COLUMNS];
+	private int surfaceColumns;
+	private float waveX;
+	private float waveY;
+	private float waterRotation;
+	private boolean settled;
+	private boolean fillSettled;
+	private long frameTimeNanos;
+
+	/**
+	 * Fill the state, only from the thread that owns it
+	 *
+	 * @param settled     - true if the drip stopped turning and the water surface is calm
+	 * @param fillSettled - true if the sea level rests on the count
+	 */
+	public void set(float waveX, float waveY, float waterRotation, boolean settled, boolean fillSettled, long frameTimeNanos) {
+		this.waveX = waveX;
+		this.waveY = waveY;
+		this.waterRotation = waterRotation;
+		this.settled = settled;
+		this.fillSettled = fillSettled;
+		this.frameTimeNanos = frameTimeNanos;
+	}
+
+	/**
+	 * Copy the heights of the water surface, only from the thread that owns the state
+	 */
+	public void setSurface(WaterSurface waterSurface) {
+		surfaceColumns = waterSurface.copyHeights(surfaceHeights);
+	}
+
+	/**
+	 * @return horizontal translation of the wave texture
+	 */
+	public float getWaveX() {
+		return waveX;
+	}
+
+	/**
+	 * @return vertical translation of the wave texture, including the sea level
+	 */
+	public float getWaveY() {
+		return waveY;
+	}
+
+	/**
+	 * @return rotation of the water in degrees
+	 */
+	public float getWaterRotation() {
+		return waterRotation;
+	}
+
+	/**
+	 * @return heights of the water surface in fractions of its width, the first {@link #getSurfaceColumns()} are valid,
+	 * must not be modified
+	 */
+	public float[] getSurfaceHeights() {
+		return surfaceHeights;
+	}
+
+	/**
+	 * @return number of water surface columns, 0 before the surface was simulated
+	 */
+	public int getSurfaceColumns() {
+		return surfaceColumns;
+	}
+
+	/**
+	 * @return true if the drip stopped turning and the water surface is calm
+	 */
+	public boolean isSettled() {
+		return settled;
+	}
+
+	/**
+	 * @return true if the sea level rests on the count
+	 */
+	public boolean isFillSettled() {
+		return fillSettled;
+	}
+
+	/**
+	 * @return the frame time this state was simulated for, 0 if it was never simulated
+	 */
+	public long getFrameTimeNanos() {
+		return frameTimeNanos;
+	}
+}
@@ -0,0 +1,99 @@
+package nirhart.dripmysteps;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time based low pass filter of the gravity vector, and its angle.
+ * Batched events keep their own timestamps, so the filter does not depend on how they are delivered.
+ * Not thread safe, should be updated from a single thread, the angle may be read from any thread.
+ */
+public class GravityFilter {
+
+	private static final float NANOS_IN_SECOND = TimeUnit.SECONDS.toNanos(1);
+	// Time constant of the low pass filter, in seconds
+	private static final float FILTER_TIME = 0.15f;
+	// Gravity shorter than that means the phone lies flat, the angle is meaningless then
+	private static final float MIN_GRAVITY = 1.5f;
+	// Longer gaps (e.g. after the sensor was stopped) restart the filter
+	private static final long MAX_GAP_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	private float gravityX, gravityY;
+	private long lastEventNanos;
+	private boolean hasEvent;
+	private volatile double angle;
+	private volatile boolean hasAngle;
+
+	/**
+	 * Filter the gravity vector and update its angle, only if the gravity vector is longer than the threshold
+	 *
+	 * @param x         - x value from accelerometer
+	 * @param y         - y value from accelerometer
+	 * @param timestamp - time of the event in nanoseconds
+	 */
+	public void update(float x, float y, long timestamp) {
+		long gap = timestamp - lastEventNanos;
+		lastEventNanos = timestamp;
+
+		if (!hasEvent || gap <= 0 || gap > MAX_GAP_NANOS) {
+			hasEvent = true;
+			gravityX = x;
+			gravityY = y;
+		} else {
+			float dt = gap / NANOS_IN_SECOND;
+			float alpha = dt / (FILTER_TIME + dt);
+			gravityX += alpha * (x - gravityX);
+			gravityY += alpha * (y - gravityY);
+		}
+
+		if (gravityX * gravityX + gravityY * gravityY > MIN_GRAVITY * MIN_GRAVITY) {
+			angle = getAngle(gravityX, -gravityY);
+			hasAngle = true;
+		}
+	}
+
+	/**
+	 * @return filtered x value of the gravity vector
+	 */
+	public float getX() {
+		return gravityX;
+	}
+
+	/**
+	 * @return filtered y value of the gravity vector
+	 */
+	public float getY() {
+		return gravityY;
+	}
+
+	/**
+	 * @return the latest filtered gravity angle in degrees
+	 */
+	public double getAngle() {
+		return angle;
+	}
+
+	/**
+	 * @return true if an angle was measured since the filter was created
+	 */
+	public boolean hasAngle() {
+		return hasAngle;
+	}
+
+	/**
+	 * Calculate the gravity angle given two coordinates
+	 *
+	 * @param x - x coordinate
+	 * @param y - y coordinate
+	 * @return angle from origin
+	 */
+	public static double getAngle(float x, float y) {
+		double inRads = Math.atan2(y, x);
+
+		if (inRads < 0)
+			inRads = Math.abs(inRads);
+		else
+			inRads = 2 * Math.PI - inRads;
+
+		return Math.toDegrees(inRads);
+	}
+}
@@ -0,0 +1,389 @@
+package nirhart.dripmysteps;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local history of steps counts, kept in primitive arrays with prefix sums so any range total is O(1).
+ * Recent history is kept in hourly buckets, buckets older than {@link #HOURLY_DAYS} days are compacted into
+ * daily buckets of 24 hours. The daily buckets are aligned to the start of the first bucket ever stored,
+ * so they may be an hour off local midnight after daylight saving time changes.
+ * <p/>
+ * On disk it is a base image followed by an append only log of changed hours, the log is folded into
+ * a new base image when it gets long or when the store is compacted.
+ * Thread safe, but does disk IO so should not be used from the main thread.
+ */
+public class HourlyStepStore {
+
+	public static final long HOUR = DayAggregator.HOUR;
+	public static final long DAY = TimeUnit.DAYS.toMillis(1);
+	/**
+	 * Days of history kept in hourly buckets
+	 */
+	public static final int HOURLY_DAYS = 30;
+
+	private static final int MAGIC = 0x44525053;
+	private static final int VERSION = 1;
+	private static final int HOURS_IN_BUCKET = 24;
+	// Fold the log into a new base image after a week of hourly changes
+	private static final int MAX_LOG_RECORDS = 24 * 7;
+	private static final int INITIAL_CAPACITY = 64;
+
+	private final File file;
+	private boolean loaded;
+	// Start time of the first bucket, daily buckets come first and hourly buckets follow
+	private long origin;
+	private int dailyCount;
+	private int hourlyCount;
+	private int[] steps = new int[INITIAL_CAPACITY];
+	// prefix[i] is the sum of steps[0..i)
+	private long[] prefix = new long[INITIAL_CAPACITY + 1];
+	private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+	private final DataOutputStream pendingOut = new DataOutputStream(pending);
+	private int pendingRecords;
+	private int logRecords;
+	private boolean rewrite;
+
+	/**
+	 * @param file - file to keep the history in, null to keep it in memory only
+	 */
+	public HourlyStepStore(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Set the steps of one hour, a no op if the hour did not change or was already compacted
+	 *
+	 * @param hourStart - start time of the hour
+	 * @param count     - steps in that hour
+	 * @return true if the store changed
+	 */
+	public synchronized boolean put(long hourStart, int count) {
+		ensureLoaded();
+
+		if (size() == 0) {
+			origin = hourStart;
+		}
+
+		long hourlyStart = getHourlyStart();
+		if (hourStart < hourlyStart)
+			return false;
+
+		int index = dailyCount + (int) ((hourStart - hourlyStart) / HOUR);
+		if (index >= size()) {
+			// Append the hours in between as empty
+			ensureCapacity(index + 1);
+			for (int i = size(); i <= index; i++) {
+				steps[i] = 0;
+				prefix[i + 1] = prefix[i];
+			}
+			hourlyCount = index + 1 - dailyCount;
+		}
+
+		int delta = count - steps[index];
+		if (delta == 0)
+			return false;
+
+		steps[index] = count;
+		// Cheap for the open hour, which is the last bucket, backfilled hours update the whole tail
+		for (int i = index + 1; i <= size(); i++) {
+			prefix[i] += delta;
+		}
+
+		try {
+			pendingOut.writeLong(hourStart);
+			pendingOut.writeInt(count);
+			pendingRecords++;
+		} catch (IOException e) {
+			// Writing to memory does not fail
+		}
+		return true;
+	}
+
+	/**
+	 * Compact the hourly buckets that are older than {@link #HOURLY_DAYS} days into daily buckets
+	 *
+	 * @param now - current time
+	 * @return number of daily buckets created
+	 */
+	public synchronized int compact(long now) {
+		ensureLoaded();
+
+		int created = 0;
+		long limit = now - HOURLY_DAYS * DAY;
+		while (hourlyCount >= HOURS_IN_BUCKET && getHourlyStart() + DAY <= limit) {
+			int first = dailyCount;
+			int remaining = hourlyCount - HOURS_IN_BUCKET;
+			steps[first] = (int) (prefix[first + HOURS_IN_BUCKET] - prefix[first]);
+			// Prefix sums after the merged day do not change, they only move with their buckets
+			System.arraycopy(steps, first + HOURS_IN_BUCKET, steps, first + 1, remaining);
+			System.arraycopy(prefix, first + HOURS_IN_BUCKET + 1, prefix, first + 2, remaining);
+			prefix[first + 1] = prefix[first] + steps[first];
+			dailyCount++;
+			hourlyCount = remaining;
+			created++;
+		}
+
+		if (created > 0) {
+			rewrite = true;
+		}
+		return created;
+	}
+
+	/**
+	 * Write the changes since the last flush, appending to the log or writing a new base image
+	 */
+	public synchronized void flush() throws IOException {
+		if (file == null || !loaded) {
+			pending.reset();
+			pendingRecords = 0;
+			return;
+		}
+
+		if (rewrite || logRecords + pendingRecords > MAX_LOG_RECORDS || !file.exists()) {
+			writeBase();
+		} else if (pendingRecords > 0) {
+			FileOutputStream out = new FileOutputStream(file, true);
+			try {
+				pending.writeTo(out);
+			} finally {
+				out.close();
+			}
+			logRecords += pendingRecords;
+		}
+
+		pending.reset();
+		pendingRecords = 0;
+	}
+
+	/**
+	 * Steps of all the buckets that start in the given range, in O(1).
+	 * Compacted days are counted whole or not at all, depending on their start.
+	 *
+	 * @param from - start of the range, inclusive
+	 * @param to   - end of the range, exclusive
+	 */
+	public synchronized long getSteps(long from, long to) {
+		ensureLoaded();
+
+		if (to <= from)
+			return 0;
+		return prefix[firstBucketFrom(to)] - prefix[firstBucketFrom(from)];
+	}
+
+	/**
+	 * Fill out with the steps of consecutive days, for week and month views
+	 *
+	 * @param firstDayStart - start of the first day
+	 * @param zone          - time zone the days are in
+	 * @param out           - steps of each day, its length is the number of days
+	 */
+	public synchronized void getDailySteps(long firstDayStart, TimeZone zone, long[] out) {
+		Calendar cal = Calendar.getInstance(zone);
+		cal.setTimeInMillis(firstDayStart);
+		long dayStart = cal.getTimeInMillis();
+		for (int i = 0; i < out.length; i++) {
+			cal.add(Calendar.DAY_OF_YEAR, 1);
+			long dayEnd = cal.getTimeInMillis();
+			out[i] = getSteps(dayStart, dayEnd);
+			dayStart = dayEnd;
+		}
+	}
+
+	/**
+	 * @param todayStart - start of today
+	 * @param zone       - time zone the days are in
+	 * @param goal       - steps goal of a day
+	 * @return number of consecutive days that reached the goal, ending today, or yesterday if today did not reach it yet
+	 */
+	public synchronized int getStreak(long todayStart, TimeZone zone, int goal) {
+		ensureLoaded();
+
+		if (goal <= 0 || size() == 0)
+			return 0;
+
+		Calendar cal = Calendar.getInstance(zone);
+		cal.setTimeInMillis(todayStart);
+		cal.add(Calendar.DAY_OF_YEAR, 1);
+		long dayEnd = cal.getTimeInMillis();
+		cal.add(Calendar.DAY_OF_YEAR, -1);
+
+		int streak = 0;
+		boolean today = true;
+		while (dayEnd > origin) {
+			long dayStart = cal.getTimeInMillis();
+			if (getSteps(dayStart, dayEnd) >= goal) {
+				streak++;
+			} else if (!today) {
+				break;
+			}
+			today = false;
+			dayEnd = dayStart;
+			cal.add(Calendar.DAY_OF_YEAR, -1);
+		}
+		return streak;
+	}
+
+	/**
+	 * @return start time of the first bucket, 0 if the store is empty
+	 */
+	public synchronized long getOrigin() {
+		ensureLoaded();
+		return size() == 0 ? 0 : origin;
+	}
+
+	/**
+	 * @return start time of the first hourly bucket, older history is kept in daily buckets
+	 */
+	public synchronized long getHourlyStart() {
+		ensureLoaded();
+		return origin + dailyCount * DAY;
+	}
+
+	/**
+	 * @return end time of the last bucket
+	 */
+	public synchronized long getEnd() {
+		ensureLoaded();
+		return getHourlyStart() + hourlyCount * HOUR;
+	}
+
+	public synchronized int getDailyCount() {
+		ensureLoaded();
+		return dailyCount;
+	}
+
+	public synchronized int getHourlyCount() {
+		ensureLoaded();
+		return hourlyCount;
+	}
+
+	private int size() {
+		return dailyCount + hourlyCount;
+	}
+
+	/**
+	 * @return index of the first bucket that starts at or after time
+	 */
+	private int firstBucketFrom(long time) {
+		if (time <= origin)
+			return 0;
+
+		long hourlyStart = getHourlyStart();
+		if (time <= hourlyStart) {
+			return (int) ((time - origin + DAY - 1) / DAY);
+		}
+
+		long hours = (time - hourlyStart + HOUR - 1) / HOUR;
+		return (int) Math.min(size(), dailyCount + hours);
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity <= steps.length)
+			return;
+
+		int newCapacity = Math.max(capacity, steps.length * 2);
+		int[] newSteps = new int[newCapacity];
+		long[] newPrefix = new long[newCapacity + 1];
+		System.arraycopy(steps, 0, newSteps, 0, size());
+		System.arraycopy(prefix, 0, newPrefix, 0, size() + 1);
+		steps = newSteps;
+		prefix = newPrefix;
+	}
+
+	private void ensureLoaded() {
+		if (loaded)
+			return;
+
+		loaded = true;
+		if (file == null || !file.exists())
+			return;
+
+		try {
+			load();
+		} catch (IOException e) {
+			// A broken file is dropped, the history is filled again by the next reads
+			dailyCount = 0;
+			hourlyCount = 0;
+			logRecords = 0;
+			pending.reset();
+			pendingRecords = 0;
+			rewrite = true;
+		}
+	}
+
+	private void load() throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException("Unknown steps history format");
+
+			origin = in.readLong();
+			int days = in.readInt();
+			int hours = in.readInt();
+			ensureCapacity(days + hours);
+			for (int i = 0; i < days + hours; i++) {
+				steps[i] = in.readInt();
+				prefix[i + 1] = prefix[i] + steps[i];
+			}
+			dailyCount = days;
+			hourlyCount = hours;
+
+			// Replay the log, a record cut by a crash is ignored
+			while (true) {
+				long hourStart;
+				int count;
+				try {
+					hourStart = in.readLong();
+					count = in.readInt();
+				} catch (EOFException e) {
+					break;
+				}
+				put(hourStart, count);
+				logRecords++;
+			}
+		} finally {
+			in.close();
+		}
+
+		// The replayed records are already on disk
+		pending.reset();
+		pendingRecords = 0;
+	}
+
+	private void writeBase() throws IOException {
+		File temp = new File(file.getPath() + ".new");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(origin);
+			out.writeInt(dailyCount);
+			out.writeInt(hourlyCount);
+			for (int i = 0; i < size(); i++) {
+				out.writeInt(steps[i]);
+			}
+		} finally {
+			out.close();
+		}
+
+		if (!temp.renameTo(file)) {
+			temp.delete();
+			throw new IOException("Could not replace " + file);
+		}
+
+		logRecords = 0;
+		rewrite = false;
+	}
+}
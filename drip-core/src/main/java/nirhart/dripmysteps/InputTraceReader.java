@@ -0,0 +1,118 @@
+package nirhart.dripmysteps;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a trace written by {@link InputTraceWriter}, one record at a time.
+ * A record cut short at the end, e.g. when the recording process was killed, ends the trace.
+ * Not thread safe.
+ */
+public class InputTraceReader {
+
+	public static final int TYPE_SENSOR = InputTraceWriter.TYPE_SENSOR;
+	public static final int TYPE_STEPS = InputTraceWriter.TYPE_STEPS;
+
+	private final DataInputStream in;
+	private int type;
+	private long timeNanos;
+	private long eventNanos;
+	private float x, y;
+	private int count;
+
+	/**
+	 * @param in - the trace, should be buffered
+	 * @throws IOException if this is not a trace this version can read
+	 */
+	public InputTraceReader(InputStream in) throws IOException {
+		this.in = new DataInputStream(in);
+		if (this.in.readInt() != InputTraceWriter.MAGIC || this.in.readInt() != InputTraceWriter.VERSION)
+			throw new IOException("Not an input trace");
+	}
+
+	/**
+	 * Move to the next record
+	 *
+	 * @return false at the end of the trace
+	 */
+	public boolean next() throws IOException {
+		try {
+			int nextType = in.read();
+			if (nextType < 0)
+				return false;
+
+			long nextTime = timeNanos + readVarLong();
+			switch (nextType) {
+				case TYPE_SENSOR:
+					eventNanos += unZigZag(readVarLong());
+					x = in.readFloat();
+					y = in.readFloat();
+					break;
+				case TYPE_STEPS:
+					count = (int) unZigZag(readVarLong());
+					break;
+				default:
+					throw new IOException("Unknown record type " + nextType);
+			}
+			type = nextType;
+			timeNanos = nextTime;
+			return true;
+		} catch (EOFException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return TYPE_SENSOR or TYPE_STEPS
+	 */
+	public int getType() {
+		return type;
+	}
+
+	/**
+	 * @return when the record was received, in nanoseconds since the recording started
+	 */
+	public long getTimeNanos() {
+		return timeNanos;
+	}
+
+	/**
+	 * @return time of the accelerometer event by the sensor clock
+	 */
+	public long getEventNanos() {
+		return eventNanos;
+	}
+
+	public float getX() {
+		return x;
+	}
+
+	public float getY() {
+		return y;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+
+	private long readVarLong() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Malformed number");
+	}
+
+	private static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+}
@@ -0,0 +1,101 @@
+package nirhart.dripmysteps;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Records the inputs of the wallpaper, accelerometer events and steps counts, to a compact binary trace,
+ * so the same session can be replayed later with {@link TraceReplayer}.
+ * <p/>
+ * After a header, every record is a type byte and the time since the previous record as a variable length number.
+ * An accelerometer event adds the time since the previous event by the sensor's own clock, which keeps the spacing of
+ * batched events, and x and y as floats. A steps count adds the count as a variable length number.
+ * Thread safe, events and counts arrive on different threads.
+ */
+public class InputTraceWriter {
+
+	static final int MAGIC = 0x44525452;
+	static final int VERSION = 1;
+	static final int TYPE_SENSOR = 1;
+	static final int TYPE_STEPS = 2;
+
+	private final DataOutputStream out;
+	private final Clock clock;
+	private long lastRecordNanos;
+	private long lastEventNanos;
+	private long records;
+	private boolean closed;
+
+	/**
+	 * @param out   - where the trace goes, should be buffered
+	 * @param clock - the time records are received at
+	 */
+	public InputTraceWriter(OutputStream out, Clock clock) throws IOException {
+		this.out = new DataOutputStream(out);
+		this.clock = clock;
+		this.out.writeInt(MAGIC);
+		this.out.writeInt(VERSION);
+		this.lastRecordNanos = clock.nanoTime();
+	}
+
+	/**
+	 * @param x          - x value from accelerometer
+	 * @param y          - y value from accelerometer
+	 * @param eventNanos - time of the event by the sensor clock
+	 */
+	public synchronized void writeSensor(float x, float y, long eventNanos) throws IOException {
+		if (closed)
+			return;
+
+		writeHeader(TYPE_SENSOR);
+		writeVarLong(zigZag(eventNanos - lastEventNanos));
+		lastEventNanos = eventNanos;
+		out.writeFloat(x);
+		out.writeFloat(y);
+	}
+
+	/**
+	 * @param count - the steps count delivered to the engines
+	 */
+	public synchronized void writeSteps(int count) throws IOException {
+		if (closed)
+			return;
+
+		writeHeader(TYPE_STEPS);
+		writeVarLong(zigZag(count));
+	}
+
+	public synchronized long getRecordCount() {
+		return records;
+	}
+
+	public synchronized void close() throws IOException {
+		if (closed)
+			return;
+
+		closed = true;
+		out.close();
+	}
+
+	private void writeHeader(int type) throws IOException {
+		long now = clock.nanoTime();
+		out.writeByte(type);
+		// Records are stamped as they arrive, a clock going back counts as no time passed
+		writeVarLong(Math.max(0, now - lastRecordNanos));
+		lastRecordNanos = Math.max(lastRecordNanos, now);
+		records++;
+	}
+
+	private void writeVarLong(long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	private static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+}
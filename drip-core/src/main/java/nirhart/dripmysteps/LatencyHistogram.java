@@ -0,0 +1,141 @@
+package nirhart.dripmysteps;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency histogram with fixed, logarithmic buckets over a primitive array, cheap enough to record every frame.
+ * Each power of two of microseconds is split into {@link #SUB_BUCKETS} buckets, so a percentile is off by at most
+ * a quarter of its value, from 1 microsecond up to {@link #MAX_MICROS}.
+ * <p/>
+ * Recording takes no lock and allocates nothing. It should be done from a single thread per histogram,
+ * readers on other threads may see a slightly stale snapshot.
+ */
+public class LatencyHistogram {
+
+	public static final int SUB_BUCKETS = 4;
+	private static final int OCTAVES = 27;
+	public static final int BUCKETS = OCTAVES * SUB_BUCKETS;
+	/**
+	 * Longer latencies are counted in the last bucket, about 2 minutes
+	 */
+	public static final long MAX_MICROS = (1L << OCTAVES) - 1;
+
+	private final String name;
+	private final long[] counts = new long[BUCKETS];
+	private volatile long count;
+	private volatile long sumNanos;
+	private volatile long maxNanos;
+
+	/**
+	 * @param name - shown in the dumps
+	 */
+	public LatencyHistogram(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @param nanos - the latency to count
+	 */
+	public void record(long nanos) {
+		if (nanos < 0)
+			nanos = 0;
+
+		counts[getBucket(TimeUnit.NANOSECONDS.toMicros(nanos))]++;
+		sumNanos += nanos;
+		if (nanos > maxNanos) {
+			maxNanos = nanos;
+		}
+		// Written last, so a reader that sees the count also sees the bucket
+		count++;
+	}
+
+	/**
+	 * @param percentile - between 0 and 100
+	 * @return upper bound of the bucket the percentile falls in, in nanoseconds, 0 if nothing was recorded
+	 */
+	public long getPercentile(double percentile) {
+		long total = count;
+		if (total == 0)
+			return 0;
+
+		long rank = (long) Math.ceil(total * Math.max(0, Math.min(100, percentile)) / 100);
+		rank = Math.max(1, rank);
+
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				// Never more than the slowest actually seen
+				return Math.min(maxNanos, TimeUnit.MICROSECONDS.toNanos(getUpperMicros(i)));
+			}
+		}
+		return maxNanos;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getMaxNanos() {
+		return maxNanos;
+	}
+
+	public long getMeanNanos() {
+		long total = count;
+		return total == 0 ? 0 : sumNanos / total;
+	}
+
+	/**
+	 * @param out - at least {@link #BUCKETS} long, gets the count of every bucket
+	 */
+	public void copyCounts(long[] out) {
+		System.arraycopy(counts, 0, out, 0, BUCKETS);
+	}
+
+	/**
+	 * Forget everything recorded, should be called from the recording thread
+	 */
+	public void reset() {
+		count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = 0;
+		}
+		sumNanos = 0;
+		maxNanos = 0;
+	}
+
+	/**
+	 * @return the bucket of a latency
+	 */
+	public static int getBucket(long micros) {
+		if (micros >= MAX_MICROS)
+			return BUCKETS - 1;
+
+		// Shifted by one so 0 has a bucket, the first octave holds 0
+		long value = micros + 1;
+		int octave = 63 - Long.numberOfLeadingZeros(value);
+		if (octave < 2) {
+			// Too few values to split the lowest octaves, they take their first buckets
+			return octave * SUB_BUCKETS + (int) (value - (1L << octave));
+		}
+		int sub = (int) (value >> (octave - 2)) & (SUB_BUCKETS - 1);
+		return octave * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * @return the highest latency in microseconds that falls in the bucket
+	 */
+	public static long getUpperMicros(int bucket) {
+		int octave = bucket / SUB_BUCKETS;
+		int sub = bucket % SUB_BUCKETS;
+		if (octave < 2) {
+			return (1L << octave) + sub - 1;
+		}
+		long nextValue = ((long) (SUB_BUCKETS + sub + 1)) << (octave - 2);
+		return nextValue - 2;
+	}
+}
@@ -0,0 +1,93 @@
+package nirhart.dripmysteps;
+
+import java.io.IOException;
+
+/**
+ * Drives a target from a recorded trace on a virtual clock, so a session replays the same way on every run.
+ * Records are delivered at the time they were received, in between frames ticked at a fixed rate.
+ */
+public class TraceReplayer {
+
+	public interface Target {
+		/**
+		 * @param x          - x value from accelerometer
+		 * @param y          - y value from accelerometer
+		 * @param eventNanos - time of the event by the sensor clock
+		 */
+		void onSensorEvent(float x, float y, long eventNanos);
+
+		void onStepsCount(int count);
+
+		/**
+		 * @param frameTimeNanos - the virtual clock time of the frame
+		 */
+		void onFrame(long frameTimeNanos);
+	}
+
+	private final InputTraceReader reader;
+	private final VirtualClock clock;
+	private final long frameNanos;
+	private final Target target;
+	private long frames;
+	private long records;
+
+	/**
+	 * @param reader     - the trace to replay
+	 * @param clock      - set to the time of every record and frame, the target should read the time from it
+	 * @param frameNanos - time between frames
+	 * @param target     - gets the records and the frames
+	 */
+	public TraceReplayer(InputTraceReader reader, VirtualClock clock, long frameNanos, Target target) {
+		this.reader = reader;
+		this.clock = clock;
+		this.frameNanos = frameNanos;
+		this.target = target;
+	}
+
+	/**
+	 * Replay the whole trace, then keep ticking frames so the animation can settle
+	 *
+	 * @param tailNanos - time to keep ticking after the last record
+	 */
+	public void replay(long tailNanos) throws IOException {
+		// Trace times start at 0, the virtual clock may not
+		long base = clock.nanoTime();
+		long nextFrame = base + frameNanos;
+
+		while (reader.next()) {
+			long recordTime = base + reader.getTimeNanos();
+			while (nextFrame <= recordTime) {
+				frame(nextFrame);
+				nextFrame += frameNanos;
+			}
+
+			clock.set(recordTime);
+			if (reader.getType() == InputTraceReader.TYPE_SENSOR) {
+				target.onSensorEvent(reader.getX(), reader.getY(), reader.getEventNanos());
+			} else {
+				target.onStepsCount(reader.getCount());
+			}
+			records++;
+		}
+
+		long end = clock.nanoTime() + tailNanos;
+		while (nextFrame <= end) {
+			frame(nextFrame);
+			nextFrame += frameNanos;
+		}
+	}
+
+	public long getFrameCount() {
+		return frames;
+	}
+
+	public long getRecordCount() {
+		return records;
+	}
+
+	private void frame(long frameTime) {
+		clock.set(frameTime);
+		target.onFrame(frameTime);
+		frames++;
+	}
+}
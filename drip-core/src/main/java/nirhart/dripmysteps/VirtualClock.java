@@ -0,0 +1,38 @@
+package nirhart.dripmysteps;
+
+/**
+ * Clock that moves only when told to, for deterministic runs.
+ * Thread safe.
+ */
+public class VirtualClock implements Clock {
+
+	private volatile long nanos;
+
+	/**
+	 * @param startNanos - the time to start from, should not be 0 since 0 means no previous frame to the animation
+	 */
+	public VirtualClock(long startNanos) {
+		this.nanos = startNanos;
+	}
+
+	@Override
+	public long nanoTime() {
+		return nanos;
+	}
+
+	/**
+	 * @param deltaNanos - time to move forward
+	 * @return the new time
+	 */
+	public synchronized long advance(long deltaNanos) {
+		nanos += deltaNanos;
+		return nanos;
+	}
+
+	/**
+	 * @param nanos - the new time, should not be earlier than the current one
+	 */
+	public synchronized void set(long nanos) {
+		this.nanos = nanos;
+	}
+}
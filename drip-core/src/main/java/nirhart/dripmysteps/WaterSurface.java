@@ -0,0 +1,255 @@
+package nirhart.dripmysteps;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1D heightfield of the water surface across the drip, a row of columns coupled by springs.
+ * The surface is pulled toward the level of the real gravity, while the drip rotation only follows the
+ * phone angle slowly, so a quick tilt raises one side and the water sloshes back as the rotation catches up.
+ * <p/>
+ * Integrated with a fixed time step on preallocated float arrays, nothing is allocated per step.
+ * The number of steps per frame is capped, and the resolution is halved when a frame costs more than the
+ * CPU budget, and doubled back when it is comfortably below it. The cost is measured on the given clock,
+ * so on a virtual clock the resolution does not depend on the machine and a replay is deterministic.
+ * Heights are in fractions of the surface width, positive is up.
+ * Not thread safe, used only from the simulation thread. The heights are copied into the published {@link FrameState},
+ * so the UI thread draws them without touching the surface.
+ */
+public class WaterSurface {
+
+	public static final int MAX_COLUMNS = 64;
+	public static final int MIN_COLUMNS = 8;
+	/**
+	 * Simulated time of a single step, in seconds
+	 */
+	public static final float FIXED_STEP = 1f / 120;
+	/**
+	 * Steps per advance, longer gaps are dropped instead of simulated
+	 */
+	public static final int MAX_STEPS = 8;
+	/**
+	 * Default CPU time of an advance, in nanoseconds
+	 */
+	public static final long DEFAULT_BUDGET_NANOS = TimeUnit.MICROSECONDS.toNanos(500);
+
+	private static final float NANOS_IN_SECOND = TimeUnit.SECONDS.toNanos(1);
+	// Wave speed across the surface in widths per second, squared
+	private static final float WAVE_SPEED_SQUARED = 2.25f;
+	// Pull toward the gravity level, and damping, per second
+	private static final float LEVEL_STIFFNESS = 40;
+	private static final float DAMPING = 3;
+	// Steepest slope the surface follows, a quarter width up from one side to the other
+	private static final float MAX_SLOPE = 0.25f;
+	// Slower than that everywhere is at rest, in widths per second
+	private static final float CALM_VELOCITY = 0.002f;
+	// Steps in a row at rest before the surface is calm, a slosh is also still for a moment when it turns back
+	private static final int CALM_STEPS = 30;
+	// Advances in a row under a quarter of the budget before the resolution is doubled back
+	private static final int CHEAP_ADVANCES_TO_GROW = 120;
+	// Advances in a row over the budget before the resolution is halved, a single slow one may be a hiccup
+	private static final int EXPENSIVE_ADVANCES_TO_SHRINK = 3;
+
+	private final float[] height = new float[MAX_COLUMNS];
+	private final float[] velocity = new float[MAX_COLUMNS];
+	private final float[] scratch = new float[MAX_COLUMNS];
+	private final int maxColumns;
+	private final Clock clock;
+	private int columns;
+	private float slope;
+	private float accumulator;
+	private long budgetNanos = DEFAULT_BUDGET_NANOS;
+	private int cheapAdvances;
+	private int expensiveAdvances;
+	private long droppedSteps;
+	private long lastCostNanos;
+	private int calmSteps;
+
+	/**
+	 * @param columns - resolution to start with, at most {@link #MAX_COLUMNS}
+	 */
+	public WaterSurface(int columns) {
+		this(columns, Clock.SYSTEM);
+	}
+
+	/**
+	 * @param columns - resolution to start with, at most {@link #MAX_COLUMNS}
+	 * @param clock   - measures the cost of the steps
+	 */
+	public WaterSurface(int columns, Clock clock) {
+		this.clock = clock;
+		this.maxColumns = Math.max(MIN_COLUMNS, Math.min(MAX_COLUMNS, columns));
+		this.columns = maxColumns;
+	}
+
+	/**
+	 * @param budgetNanos - CPU time an advance may take
+	 */
+	public void setBudgetNanos(long budgetNanos) {
+		this.budgetNanos = budgetNanos;
+	}
+
+	/**
+	 * @param degrees - angle between the real gravity and the drawn water rotation
+	 */
+	public void setTilt(float degrees) {
+		// Shortest way around, then the slope of a level line tilted by that angle
+		degrees %= 360;
+		if (degrees > 180)
+			degrees -= 360;
+		if (degrees < -180)
+			degrees += 360;
+
+		float s = (float) Math.tan(Math.toRadians(Math.max(-80, Math.min(80, degrees))));
+		slope = Math.max(-MAX_SLOPE, Math.min(MAX_SLOPE, s));
+	}
+
+	/**
+	 * Run as many fixed steps as the elapsed time needs, within the step cap
+	 *
+	 * @param deltaNanos - time passed since the previous call
+	 */
+	public void advance(long deltaNanos) {
+		accumulator += deltaNanos / NANOS_IN_SECOND;
+		int steps = (int) (accumulator / FIXED_STEP);
+		if (steps > MAX_STEPS) {
+			// Falling behind, slow the water down rather than spending more time on it
+			droppedSteps += steps - MAX_STEPS;
+			steps = MAX_STEPS;
+			accumulator = 0;
+		} else {
+			accumulator -= steps * FIXED_STEP;
+		}
+
+		if (steps == 0)
+			return;
+
+		long start = clock.nanoTime();
+		for (int i = 0; i < steps; i++) {
+			step(FIXED_STEP);
+		}
+		lastCostNanos = clock.nanoTime() - start;
+
+		adjustResolution(lastCostNanos * MAX_STEPS / steps);
+	}
+
+	/**
+	 * Copy the heights, one per column
+	 *
+	 * @param out - at least {@link #MAX_COLUMNS} long
+	 * @return number of columns copied
+	 */
+	public int copyHeights(float[] out) {
+		System.arraycopy(height, 0, out, 0, columns);
+		return columns;
+	}
+
+	/**
+	 * @return the biggest absolute value in heights
+	 */
+	public static float getAmplitude(float[] heights, int columns) {
+		float amplitude = 0;
+		for (int i = 0; i < columns; i++) {
+			amplitude = Math.max(amplitude, Math.abs(heights[i]));
+		}
+		return amplitude;
+	}
+
+	/**
+	 * @return true if the surface came to rest, nothing to animate.
+	 * The resting surface is not exactly the gravity level, the walls flatten it a little.
+	 */
+	public boolean isCalm() {
+		return calmSteps >= CALM_STEPS;
+	}
+
+	public int getColumns() {
+		return columns;
+	}
+
+	/**
+	 * @return number of steps skipped because an advance needed more than {@link #MAX_STEPS}
+	 */
+	public long getDroppedSteps() {
+		return droppedSteps;
+	}
+
+	/**
+	 * @return CPU time of the last advance that ran any step on the clock, in nanoseconds
+	 */
+	public long getLastCostNanos() {
+		return lastCostNanos;
+	}
+
+	/**
+	 * One semi implicit Euler step, velocities from the current heights first, then the heights
+	 */
+	private void step(float dt) {
+		int n = columns;
+		float dx = 1f / n;
+		float waveFactor = WAVE_SPEED_SQUARED / (dx * dx);
+
+		for (int i = 0; i < n; i++) {
+			// The drip sides are walls, the surface is flat against them
+			float left = height[i > 0 ? i - 1 : i];
+			float right = height[i < n - 1 ? i + 1 : i];
+			float level = slope * ((i + 0.5f) * dx - 0.5f);
+
+			float acceleration = waveFactor * (left + right - 2 * height[i]) + LEVEL_STIFFNESS * (level - height[i]) - DAMPING * velocity[i];
+			velocity[i] += acceleration * dt;
+		}
+
+		boolean still = true;
+		for (int i = 0; i < n; i++) {
+			height[i] += velocity[i] * dt;
+			still &= Math.abs(velocity[i]) < CALM_VELOCITY;
+		}
+		calmSteps = still ? calmSteps + 1 : 0;
+	}
+
+	/**
+	 * Halve or double the resolution according to the cost of a full advance
+	 */
+	private void adjustResolution(long fullCostNanos) {
+		if (fullCostNanos > budgetNanos && columns > MIN_COLUMNS) {
+			cheapAdvances = 0;
+			if (++expensiveAdvances >= EXPENSIVE_ADVANCES_TO_SHRINK) {
+				expensiveAdvances = 0;
+				resample(columns / 2);
+			}
+			return;
+		}
+
+		expensiveAdvances = 0;
+		if (fullCostNanos * 4 < budgetNanos && columns < maxColumns) {
+			// Twice the columns cost about twice as much, grow only with plenty of room left
+			if (++cheapAdvances >= CHEAP_ADVANCES_TO_GROW) {
+				cheapAdvances = 0;
+				resample(columns * 2);
+			}
+		} else {
+			cheapAdvances = 0;
+		}
+	}
+
+	/**
+	 * Resample the heights and the velocities to a new number of columns, linearly
+	 */
+	private void resample(int newColumns) {
+		newColumns = Math.max(MIN_COLUMNS, Math.min(maxColumns, newColumns));
+		resample(height, newColumns);
+		resample(velocity, newColumns);
+		columns = newColumns;
+	}
+
+	private void resample(float[] values, int newColumns) {
+		System.arraycopy(values, 0, scratch, 0, columns);
+		for (int i = 0; i < newColumns; i++) {
+			// Column centers of the new grid, in the old grid
+			float x = (i + 0.5f) * columns / newColumns - 0.5f;
+			int i0 = Math.max(0, Math.min(columns - 1, (int) Math.floor(x)));
+			int i1 = Math.min(columns - 1, i0 + 1);
+			float t = Math.max(0, Math.min(1, x - i0));
+			values[i] = scratch[i0] + (scratch[i1] - scratch[i0]) * t;
+		}
+	}
+}
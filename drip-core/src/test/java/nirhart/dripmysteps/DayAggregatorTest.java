@@ -0,0 +1,126 @@
+package nirhart.dripmysteps;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import static nirhart.dripmysteps.DayAggregator.HOUR;
+import static org.junit.Assert.*;
+
+public class DayAggregatorTest {
+
+	private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+	private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+	// Midnight of a day, in UTC
+	private static final long DAY = TimeUnit.DAYS.toMillis(16000);
+
+	private DayAggregator aggregator;
+
+	@Before
+	public void setUp() {
+		aggregator = new DayAggregator();
+	}
+
+	@Test
+	public void firstReadCoversTheWholeDay() {
+		long now = DAY + 10 * HOUR + 30 * MINUTE;
+		assertEquals(DAY, aggregator.beginQuery(now, UTC));
+		assertEquals(now, aggregator.getQueryEnd());
+		assertFalse(aggregator.isClosingDay());
+
+		aggregator.onBucket(DAY + 8 * HOUR, 500);
+		aggregator.onBucket(DAY + 10 * HOUR, 200);
+		assertTrue(aggregator.endQuery(now));
+		assertEquals(700, aggregator.getTotal());
+		assertEquals(1, aggregator.getFullReadCount());
+	}
+
+	@Test
+	public void nextReadStartsAnHourBeforeTheOpenHour() {
+		read(DAY + 10 * HOUR + 30 * MINUTE, 10, 200);
+
+		long now = DAY + 11 * HOUR + 5 * MINUTE;
+		assertEquals(DAY + 9 * HOUR, aggregator.beginQuery(now, UTC));
+		aggregator.onBucket(DAY + 9 * HOUR, 0);
+		aggregator.onBucket(DAY + 10 * HOUR, 300);
+		aggregator.onBucket(DAY + 11 * HOUR, 50);
+		assertTrue(aggregator.endQuery(now));
+
+		assertEquals(350, aggregator.getTotal());
+		assertEquals(1, aggregator.getIncrementalReadCount());
+	}
+
+	@Test
+	public void backfilledHourStartsAFullRead() {
+		read(DAY + 10 * HOUR + 30 * MINUTE, 10, 200);
+
+		long now = DAY + 11 * HOUR + 5 * MINUTE;
+		aggregator.beginQuery(now, UTC);
+		// Steps synced late from another device
+		aggregator.onBucket(DAY + 9 * HOUR, 400);
+		aggregator.onBucket(DAY + 10 * HOUR, 300);
+		assertFalse(aggregator.endQuery(now));
+		assertEquals(0, aggregator.getTotal());
+
+		assertEquals(DAY, aggregator.beginQuery(now, UTC));
+	}
+
+	@Test
+	public void newDayClosesThePreviousDayFirst() {
+		read(DAY + 23 * HOUR + 30 * MINUTE, 23, 100);
+
+		long now = DAY + 24 * HOUR + 10 * MINUTE;
+		// The rest of the last hour of the previous day, up to its midnight
+		assertEquals(DAY + 23 * HOUR, aggregator.beginQuery(now, UTC));
+		assertTrue(aggregator.isClosingDay());
+		assertEquals(DAY + 24 * HOUR, aggregator.getQueryEnd());
+		aggregator.onBucket(DAY + 23 * HOUR, 180);
+		assertEquals(180, aggregator.getHourSteps(23));
+		assertTrue(aggregator.endQuery(aggregator.getQueryEnd()));
+		assertEquals(DAY + 24 * HOUR, aggregator.getDayStart());
+
+		// Then today, from its start
+		assertEquals(DAY + 24 * HOUR, aggregator.beginQuery(now, UTC));
+		assertFalse(aggregator.isClosingDay());
+		assertEquals(now, aggregator.getQueryEnd());
+		aggregator.onBucket(DAY + 24 * HOUR, 40);
+		assertTrue(aggregator.endQuery(now));
+		assertEquals(40, aggregator.getTotal());
+	}
+
+	@Test
+	public void failedClosingReadIsTriedAgain() {
+		read(DAY + 23 * HOUR + 30 * MINUTE, 23, 100);
+
+		long now = DAY + 24 * HOUR + 10 * MINUTE;
+		aggregator.beginQuery(now, UTC);
+		assertTrue(aggregator.isClosingDay());
+
+		// No endQuery, the read failed
+		assertEquals(DAY + 23 * HOUR, aggregator.beginQuery(now + MINUTE, UTC));
+		assertTrue(aggregator.isClosingDay());
+	}
+
+	@Test
+	public void timeZoneChangeStartsAFullRead() {
+		read(DAY + 23 * HOUR + 30 * MINUTE, 23, 100);
+
+		TimeZone zone = TimeZone.getTimeZone("GMT+02:00");
+		long now = DAY + 23 * HOUR + 40 * MINUTE;
+		long start = aggregator.beginQuery(now, zone);
+		assertFalse(aggregator.isClosingDay());
+		assertEquals(DayAggregator.startOfDay(now, zone), start);
+		assertEquals(0, aggregator.getTotal());
+	}
+
+	/**
+	 * A successful read of the whole day so far, with steps in a single hour
+	 */
+	private void read(long now, int hour, int steps) {
+		aggregator.beginQuery(now, UTC);
+		aggregator.onBucket(DayAggregator.startOfDay(now, UTC) + hour * HOUR, steps);
+		assertTrue(aggregator.endQuery(now));
+	}
+}
@@ -0,0 +1,92 @@
+package nirhart.dripmysteps;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DripSimulationTest {
+
+	private static final long FRAME = TimeUnit.SECONDS.toNanos(1) / 60;
+
+	private double angle;
+	private DripSimulation simulation;
+	private FrameState state;
+
+	@Before
+	public void setUp() {
+		angle = 0;
+		simulation = new DripSimulation(new DripAnimator(1, 0.5f, 100), new FillPredictor(), new WaterSurface(WaterSurface.MAX_COLUMNS), new DripSimulation.AngleSource() {
+			@Override
+			public boolean hasAngle() {
+				return true;
+			}
+
+			@Override
+			public double getAngle() {
+				return angle;
+			}
+		});
+		simulation.setGoal(1000);
+		simulation.setSeaBounds(900, 100);
+		state = new FrameState();
+	}
+
+	@Test
+	public void fillIsClampedBetweenMinimumAndFull() {
+		assertEquals(DripSimulation.MIN_FILL, DripSimulation.getFill(0, 1000), 0);
+		assertEquals(0.5f, DripSimulation.getFill(500, 1000), 0.0001f);
+		assertEquals(1, DripSimulation.getFill(2500, 1000), 0);
+		assertEquals(1, DripSimulation.getFill(10, 0), 0);
+	}
+
+	@Test
+	public void seaWaitsAtTheBottomUntilACountArrives() {
+		simulation.tick(FRAME, state);
+		assertEquals(900, simulation.getOffsetY(), 0);
+		assertEquals(900, state.getWaveY(), 0.001f);
+	}
+
+	@Test
+	public void seaRisesTowardTheCount() {
+		simulation.getFillPredictor().onCount(500, FRAME);
+		for (int i = 1; i <= 600; i++) {
+			simulation.tick(i * FRAME, state);
+		}
+		assertEquals(500, simulation.getOffsetY(), 1);
+	}
+
+	@Test
+	public void dripTurnsTowardTheAngleAndSettles() {
+		angle = 90;
+		for (int i = 1; i <= 600; i++) {
+			simulation.tick(i * FRAME, state);
+		}
+		assertTrue(simulation.isRotationSettled());
+		assertTrue(state.isSettled());
+		// Stops within the rotation threshold, short of the exact angle
+		assertEquals(0, state.getWaterRotation(), 3);
+	}
+
+	@Test
+	public void frameCarriesTheFillSettledFlag() {
+		simulation.getFillPredictor().onCount(100, FRAME);
+		simulation.tick(FRAME, state);
+		simulation.getFillPredictor().onCount(600, 2 * FRAME);
+		assertFalse(simulation.tick(2 * FRAME, state).isFillSettled());
+
+		for (int i = 3; i <= 600; i++) {
+			simulation.tick(i * FRAME, state);
+		}
+		assertTrue(state.isFillSettled());
+	}
+
+	@Test
+	public void waveMovesWithTime() {
+		float first = simulation.tick(FRAME, state).getWaveX();
+		simulation.tick(2 * FRAME, state);
+		assertTrue(simulation.tick(3 * FRAME, state).getWaveX() > first);
+	}
+}
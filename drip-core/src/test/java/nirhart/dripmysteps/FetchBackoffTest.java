@@ -0,0 +1,90 @@
+package nirhart.dripmysteps;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FetchBackoffTest {
+
+	private FetchBackoff backoff;
+
+	@Before
+	public void setUp() {
+		backoff = new FetchBackoff(new Random(7));
+	}
+
+	@Test
+	public void closedUntilConnected() {
+		assertFalse(backoff.canFetch(0));
+
+		backoff.setConnected(true);
+		assertTrue(backoff.canFetch(0));
+
+		backoff.setConnected(false);
+		assertFalse(backoff.canFetch(0));
+	}
+
+	@Test
+	public void delayDoublesUpToTheCap() {
+		assertEquals(0, FetchBackoff.getDelay(0));
+		assertEquals(FetchBackoff.BASE_DELAY, FetchBackoff.getDelay(1));
+		assertEquals(2 * FetchBackoff.BASE_DELAY, FetchBackoff.getDelay(2));
+		assertEquals(4 * FetchBackoff.BASE_DELAY, FetchBackoff.getDelay(3));
+		assertEquals(FetchBackoff.MAX_DELAY, FetchBackoff.getDelay(10));
+		// No overflow however long it fails
+		assertEquals(FetchBackoff.MAX_DELAY, FetchBackoff.getDelay(1000));
+	}
+
+	@Test
+	public void failureWaitsAtLeastHalfTheDelay() {
+		backoff.setConnected(true);
+		long now = 1000;
+		for (int failures = 1; failures <= 12; failures++) {
+			long delay = backoff.onFailure(now);
+			long full = FetchBackoff.getDelay(failures);
+			assertTrue(delay >= full / 2);
+			assertTrue(delay <= full);
+
+			assertFalse(backoff.canFetch(now + delay - 1));
+			assertTrue(backoff.canFetch(now + delay));
+			now += delay;
+		}
+		assertEquals(12, backoff.getFailures());
+	}
+
+	@Test
+	public void successForgetsTheFailures() {
+		backoff.setConnected(true);
+		backoff.onFailure(0);
+		backoff.onFailure(0);
+		assertFalse(backoff.canFetch(0));
+
+		backoff.onSuccess();
+		assertEquals(0, backoff.getFailures());
+		assertTrue(backoff.canFetch(0));
+	}
+
+	@Test
+	public void reconnectingForgetsTheFailures() {
+		backoff.setConnected(true);
+		backoff.onFailure(0);
+		backoff.setConnected(false);
+		backoff.setConnected(true);
+
+		assertEquals(0, backoff.getFailures());
+		assertTrue(backoff.canFetch(0));
+	}
+
+	@Test
+	public void stayingConnectedKeepsTheFailures() {
+		backoff.setConnected(true);
+		backoff.onFailure(0);
+		backoff.setConnected(true);
+
+		assertEquals(1, backoff.getFailures());
+		assertFalse(backoff.canFetch(0));
+	}
+}
@@ -0,0 +1,95 @@
+package nirhart.dripmysteps;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class FillPredictorTest {
+
+	private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+	private static final long FRAME = SECOND / 60;
+
+	@Test
+	public void firstCountIsShownRightAway() {
+		FillPredictor predictor = new FillPredictor();
+		assertFalse(predictor.hasCount());
+
+		predictor.onCount(1200, SECOND);
+		predictor.advance(SECOND);
+		assertTrue(predictor.hasCount());
+		assertEquals(1200, predictor.getDisplayedCount(), 0);
+	}
+
+	@Test
+	public void cadenceOfCountsEverySecond() {
+		FillPredictor predictor = new FillPredictor();
+		for (int i = 0; i <= 300; i++) {
+			predictor.onCount(2 * i, SECOND + i * SECOND);
+		}
+		assertEquals(2, predictor.getCadence(), 0.05f);
+	}
+
+	@Test
+	public void mergedCountsKeepTheirSteps() {
+		// One count per step at 2 steps per second, the way the step counter pushes them
+		FillPredictor predictor = new FillPredictor();
+		for (int i = 0; i <= 600; i++) {
+			predictor.onCount(i, SECOND + i * SECOND / 2);
+		}
+		assertEquals(2, predictor.getCadence(), 0.05f);
+	}
+
+	@Test
+	public void mergedCountIsNotHiddenByTheExtrapolation() {
+		FillPredictor predictor = new FillPredictor();
+		predictor.onCount(100, SECOND);
+		predictor.onCount(150, SECOND + SECOND / 2);
+		assertTrue(predictor.getPredictedCount(SECOND + SECOND / 2) >= 150);
+	}
+
+	@Test
+	public void displayedCountRisesSmoothlyAndSettles() {
+		FillPredictor predictor = new FillPredictor();
+		long now = SECOND;
+		predictor.onCount(1000, now);
+		predictor.advance(now);
+
+		predictor.onCount(1100, now + FRAME);
+		float previous = predictor.getDisplayedCount();
+		for (int i = 0; i < 600; i++) {
+			now += FRAME;
+			predictor.advance(now);
+			float displayed = predictor.getDisplayedCount();
+			assertTrue(displayed >= previous - 0.01f);
+			assertTrue(displayed <= 1100.5f);
+			previous = displayed;
+		}
+		assertEquals(1100, predictor.getDisplayedCount(), 0.5f);
+		assertTrue(predictor.isSettled());
+	}
+
+	@Test
+	public void lowerCountIsANewDay() {
+		FillPredictor predictor = new FillPredictor();
+		predictor.onCount(9000, SECOND);
+		predictor.onCount(9100, 2 * SECOND);
+		predictor.onCount(10, 3 * SECOND);
+		predictor.advance(3 * SECOND);
+
+		assertEquals(10, predictor.getDisplayedCount(), 0);
+		assertEquals(0, predictor.getCadence(), 0);
+	}
+
+	@Test
+	public void longGapSnaps() {
+		FillPredictor predictor = new FillPredictor();
+		predictor.onCount(100, SECOND);
+		predictor.advance(SECOND);
+		predictor.onCount(500, 2 * SECOND);
+		predictor.advance(10 * SECOND);
+
+		assertEquals(predictor.getPredictedCount(10 * SECOND), predictor.getDisplayedCount(), 0);
+	}
+}
@@ -0,0 +1,53 @@
+package nirhart.dripmysteps;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrameExchangeTest {
+
+	private FrameExchange frames;
+
+	@Before
+	public void setUp() {
+		frames = new FrameExchange();
+	}
+
+	@Test
+	public void nothingPublishedKeepsTheFirstState() {
+		FrameState state = frames.acquire();
+		assertEquals(0, state.getFrameTimeNanos());
+		assertSame(state, frames.acquire());
+	}
+
+	@Test
+	public void acquireTakesTheLatestPublished() {
+		publish(1);
+		publish(2);
+		assertEquals(2, frames.acquire().getFrameTimeNanos());
+
+		// Nothing newer, the same state again
+		assertEquals(2, frames.acquire().getFrameTimeNanos());
+		publish(3);
+		assertEquals(3, frames.acquire().getFrameTimeNanos());
+	}
+
+	@Test
+	public void acquiredStateIsNeverTheOneBeingFilled() {
+		for (int i = 1; i <= 10; i++) {
+			FrameState acquired = frames.acquire();
+			long frameTime = acquired.getFrameTimeNanos();
+			publish(i);
+			publish(i + 100);
+			// The publisher filled the other states only
+			assertEquals(frameTime, acquired.getFrameTimeNanos());
+			assertNotSame(acquired, frames.getBack());
+		}
+	}
+
+	private void publish(long frameTimeNanos) {
+		frames.getBack().set(0, 0, 0, false, false, frameTimeNanos);
+		frames.publish();
+	}
+}
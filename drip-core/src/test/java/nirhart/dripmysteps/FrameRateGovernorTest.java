@@ -0,0 +1,49 @@
+package nirhart.dripmysteps;
+
+import org.junit.Test;
+
+import static nirhart.dripmysteps.FrameRateGovernor.*;
+import static org.junit.Assert.*;
+
+public class FrameRateGovernorTest {
+
+	@Test
+	public void anythingMovingIsFullActivity() {
+		assertEquals(ACTIVITY_MOVING, getActivity(true, true, true, true));
+		assertEquals(ACTIVITY_MOVING, getActivity(false, false, true, false));
+		assertEquals(ACTIVITY_MOVING, getActivity(false, true, false, false));
+	}
+
+	@Test
+	public void stillSceneDependsOnTheTide() {
+		assertEquals(ACTIVITY_WAVE, getActivity(false, true, true, true));
+		assertEquals(ACTIVITY_CALM, getActivity(false, true, true, false));
+	}
+
+	@Test
+	public void budgetByPowerModeAndActivity() {
+		assertEquals(60, selectFps(POWER_MODE_PERFORMANCE, ACTIVITY_MOVING, 80, false, false));
+		assertEquals(30, selectFps(POWER_MODE_BALANCED, ACTIVITY_WAVE, 80, false, false));
+		assertEquals(10, selectFps(POWER_MODE_BATTERY_SAVER, ACTIVITY_CALM, 80, false, false));
+	}
+
+	@Test
+	public void unknownValuesFallBack() {
+		assertEquals(selectFps(POWER_MODE_BALANCED, ACTIVITY_MOVING, 80, false, false), selectFps(7, -1, 80, false, false));
+	}
+
+	@Test
+	public void lowBatteryAndPowerSaveStepDown() {
+		assertEquals(30, selectFps(POWER_MODE_PERFORMANCE, ACTIVITY_WAVE, LOW_BATTERY_LEVEL, false, false));
+		assertEquals(30, selectFps(POWER_MODE_PERFORMANCE, ACTIVITY_WAVE, 80, false, true));
+		// Charging or an unknown level keeps the mode
+		assertEquals(60, selectFps(POWER_MODE_PERFORMANCE, ACTIVITY_WAVE, LOW_BATTERY_LEVEL, true, false));
+		assertEquals(60, selectFps(POWER_MODE_PERFORMANCE, ACTIVITY_WAVE, -1, false, false));
+	}
+
+	@Test
+	public void criticalBatteryIsCapped() {
+		assertEquals(CRITICAL_BATTERY_FPS, selectFps(POWER_MODE_PERFORMANCE, ACTIVITY_MOVING, CRITICAL_BATTERY_LEVEL, false, false));
+		assertEquals(60, selectFps(POWER_MODE_PERFORMANCE, ACTIVITY_MOVING, CRITICAL_BATTERY_LEVEL, true, false));
+	}
+}
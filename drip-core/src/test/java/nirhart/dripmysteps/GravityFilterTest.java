@@ -0,0 +1,44 @@
+package nirhart.dripmysteps;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class GravityFilterTest {
+
+	private static final long SAMPLE = TimeUnit.MILLISECONDS.toNanos(100);
+
+	@Test
+	public void angleOfTheAxes() {
+		assertEquals(360, GravityFilter.getAngle(1, 0), 0.001);
+		assertEquals(270, GravityFilter.getAngle(0, 1), 0.001);
+		assertEquals(180, GravityFilter.getAngle(-1, 0), 0.001);
+		assertEquals(90, GravityFilter.getAngle(0, -1), 0.001);
+	}
+
+	@Test
+	public void phoneLyingFlatHasNoAngle() {
+		GravityFilter filter = new GravityFilter();
+		filter.update(0.2f, 0.3f, SAMPLE);
+		assertFalse(filter.hasAngle());
+	}
+
+	@Test
+	public void spikeIsSmoothed() {
+		GravityFilter filter = new GravityFilter();
+		filter.update(0, 9.8f, SAMPLE);
+		filter.update(9.8f, 9.8f, 2 * SAMPLE);
+		assertTrue(filter.getX() > 0 && filter.getX() < 9.8f);
+	}
+
+	@Test
+	public void longGapRestartsTheFilter() {
+		GravityFilter filter = new GravityFilter();
+		filter.update(0, 9.8f, SAMPLE);
+		filter.update(9.8f, 0, SAMPLE + TimeUnit.SECONDS.toNanos(5));
+		assertEquals(9.8f, filter.getX(), 0);
+		assertEquals(360, filter.getAngle(), 0.001);
+	}
+}
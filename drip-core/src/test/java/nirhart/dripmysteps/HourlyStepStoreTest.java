@@ -0,0 +1,134 @@
+package nirhart.dripmysteps;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+public class HourlyStepStoreTest {
+
+	private static final long HOUR = HourlyStepStore.HOUR;
+	private static final long DAY = HourlyStepStore.DAY;
+	private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+	// 2016-01-01 00:00 UTC
+	private static final long ORIGIN = 1451606400000L;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void rangeTotals() throws Exception {
+		HourlyStepStore store = new HourlyStepStore(null);
+		store.put(ORIGIN, 100);
+		store.put(ORIGIN + 2 * HOUR, 50);
+		store.put(ORIGIN + 5 * HOUR, 25);
+
+		assertEquals(175, store.getSteps(ORIGIN, ORIGIN + DAY));
+		assertEquals(50, store.getSteps(ORIGIN + HOUR, ORIGIN + 3 * HOUR));
+		assertEquals(75, store.getSteps(ORIGIN + 2 * HOUR, ORIGIN + 100 * HOUR));
+		assertEquals(0, store.getSteps(ORIGIN - DAY, ORIGIN));
+		assertEquals(6, store.getHourlyCount());
+	}
+
+	@Test
+	public void updateHour() throws Exception {
+		HourlyStepStore store = new HourlyStepStore(null);
+		store.put(ORIGIN, 10);
+		store.put(ORIGIN + HOUR, 20);
+
+		assertTrue(store.put(ORIGIN, 30));
+		assertFalse(store.put(ORIGIN, 30));
+		assertEquals(50, store.getSteps(ORIGIN, ORIGIN + DAY));
+		assertEquals(20, store.getSteps(ORIGIN + HOUR, ORIGIN + DAY));
+	}
+
+	@Test
+	public void compactOldHours() throws Exception {
+		HourlyStepStore store = new HourlyStepStore(null);
+		int days = HourlyStepStore.HOURLY_DAYS + 3;
+		for (int hour = 0; hour < days * 24; hour++) {
+			store.put(ORIGIN + hour * HOUR, 1);
+		}
+
+		long now = ORIGIN + days * DAY;
+		long totalBefore = store.getSteps(ORIGIN, now);
+		assertEquals(3, store.compact(now));
+		assertEquals(3, store.getDailyCount());
+		assertEquals(HourlyStepStore.HOURLY_DAYS * 24, store.getHourlyCount());
+		assertEquals(totalBefore, store.getSteps(ORIGIN, now));
+		assertEquals(24, store.getSteps(ORIGIN + DAY, ORIGIN + 2 * DAY));
+		assertEquals(48, store.getSteps(ORIGIN + 2 * DAY, ORIGIN + 4 * DAY));
+
+		// Hours inside a compacted day can not change anymore
+		assertFalse(store.put(ORIGIN + HOUR, 1000));
+		assertEquals(0, store.compact(now));
+	}
+
+	@Test
+	public void dailyStepsAndStreak() throws Exception {
+		HourlyStepStore store = new HourlyStepStore(null);
+		store.put(ORIGIN + 10 * HOUR, 5000);
+		store.put(ORIGIN + DAY + 10 * HOUR, 12000);
+		store.put(ORIGIN + 2 * DAY + 10 * HOUR, 11000);
+		store.put(ORIGIN + 3 * DAY + 10 * HOUR, 2000);
+
+		long[] daily = new long[4];
+		store.getDailySteps(ORIGIN, UTC, daily);
+		assertArrayEquals(new long[]{5000, 12000, 11000, 2000}, daily);
+
+		// Today did not reach the goal yet, the streak ends yesterday
+		assertEquals(2, store.getStreak(ORIGIN + 3 * DAY, UTC, 10000));
+		assertEquals(0, store.getStreak(ORIGIN + DAY * 5, UTC, 10000));
+	}
+
+	@Test
+	public void persistAndReload() throws Exception {
+		File file = new File(folder.getRoot(), "history");
+		HourlyStepStore store = new HourlyStepStore(file);
+		store.put(ORIGIN, 10);
+		store.put(ORIGIN + HOUR, 20);
+		store.flush();
+
+		// Appended to the log
+		store.put(ORIGIN + HOUR, 25);
+		store.put(ORIGIN + 3 * HOUR, 5);
+		store.flush();
+
+		HourlyStepStore reloaded = new HourlyStepStore(file);
+		assertEquals(ORIGIN, reloaded.getOrigin());
+		assertEquals(4, reloaded.getHourlyCount());
+		assertEquals(40, reloaded.getSteps(ORIGIN, ORIGIN + DAY));
+		assertEquals(25, reloaded.getSteps(ORIGIN + HOUR, ORIGIN + 2 * HOUR));
+	}
+
+	@Test
+	public void persistCompacted() throws Exception {
+		File file = new File(folder.getRoot(), "history");
+		HourlyStepStore store = new HourlyStepStore(file);
+		int days = HourlyStepStore.HOURLY_DAYS + 2;
+		for (int hour = 0; hour < days * 24; hour++) {
+			store.put(ORIGIN + hour * HOUR, 2);
+		}
+		store.compact(ORIGIN + days * DAY);
+		store.flush();
+
+		HourlyStepStore reloaded = new HourlyStepStore(file);
+		assertEquals(2, reloaded.getDailyCount());
+		assertEquals(days * 24 * 2, reloaded.getSteps(ORIGIN, ORIGIN + days * DAY));
+	}
+
+	@Test
+	public void brokenFileStartsEmpty() throws Exception {
+		File file = folder.newFile("history");
+		HourlyStepStore store = new HourlyStepStore(file);
+		assertEquals(0, store.getSteps(ORIGIN, ORIGIN + DAY));
+		assertTrue(store.put(ORIGIN, 7));
+		store.flush();
+
+		assertEquals(7, new HourlyStepStore(file).getSteps(ORIGIN, ORIGIN + HOUR));
+	}
+}
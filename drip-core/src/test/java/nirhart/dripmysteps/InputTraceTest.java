@@ -0,0 +1,135 @@
+package nirhart.dripmysteps;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class InputTraceTest {
+
+	private static final long FRAME = TimeUnit.SECONDS.toNanos(1) / 60;
+	private static final long SAMPLE = TimeUnit.MILLISECONDS.toNanos(100);
+
+	@Test
+	public void roundTrip() throws IOException {
+		VirtualClock clock = new VirtualClock(TimeUnit.SECONDS.toNanos(1000));
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		InputTraceWriter writer = new InputTraceWriter(bytes, clock);
+		clock.advance(SAMPLE);
+		writer.writeSensor(1.5f, -9.8f, 5000);
+		writer.writeSensor(1.6f, -9.7f, 5000 + SAMPLE);
+		clock.advance(TimeUnit.SECONDS.toNanos(3));
+		writer.writeSteps(1234);
+		writer.close();
+
+		InputTraceReader reader = new InputTraceReader(new ByteArrayInputStream(bytes.toByteArray()));
+		assertTrue(reader.next());
+		assertEquals(InputTraceReader.TYPE_SENSOR, reader.getType());
+		assertEquals(SAMPLE, reader.getTimeNanos());
+		assertEquals(5000, reader.getEventNanos());
+		assertEquals(1.5f, reader.getX(), 0);
+		assertEquals(-9.8f, reader.getY(), 0);
+
+		assertTrue(reader.next());
+		assertEquals(SAMPLE, reader.getTimeNanos());
+		assertEquals(5000 + SAMPLE, reader.getEventNanos());
+
+		assertTrue(reader.next());
+		assertEquals(InputTraceReader.TYPE_STEPS, reader.getType());
+		assertEquals(SAMPLE + TimeUnit.SECONDS.toNanos(3), reader.getTimeNanos());
+		assertEquals(1234, reader.getCount());
+		assertFalse(reader.next());
+	}
+
+	@Test
+	public void truncatedRecordEndsTheTrace() throws IOException {
+		InputTraceReader reader = new InputTraceReader(new ByteArrayInputStream(record(10)));
+		int records = 0;
+		while (reader.next()) {
+			records++;
+		}
+		// The events and the first count, without the event cut in half
+		assertEquals(11, records);
+	}
+
+	@Test
+	public void replayIsDeterministic() throws IOException {
+		byte[] trace = record(200);
+		List<String> first = replay(trace);
+		List<String> second = replay(trace);
+
+		assertTrue(first.size() > 200);
+		assertEquals(first, second);
+	}
+
+	/**
+	 * A tilt from upright to the side while walking, one event every sample and a count every 5 seconds
+	 *
+	 * @return the trace, with one more sensor event than asked for cut in half at the end
+	 */
+	private static byte[] record(int events) throws IOException {
+		VirtualClock clock = new VirtualClock(SAMPLE);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		InputTraceWriter writer = new InputTraceWriter(bytes, clock);
+		for (int i = 0; i < events; i++) {
+			clock.advance(SAMPLE);
+			double angle = Math.toRadians(90.0 * i / events);
+			writer.writeSensor((float) (9.8 * Math.sin(angle)), (float) (9.8 * Math.cos(angle)), clock.nanoTime());
+			if (i % 50 == 0) {
+				writer.writeSteps(i / 5);
+			}
+		}
+		writer.writeSensor(0, 9.8f, clock.nanoTime());
+		writer.close();
+		byte[] trace = bytes.toByteArray();
+		return Arrays.copyOf(trace, trace.length - 4);
+	}
+
+	private static List<String> replay(byte[] trace) throws IOException {
+		final List<String> states = new ArrayList<String>();
+		final VirtualClock clock = new VirtualClock(FRAME);
+		final FrameState state = new FrameState();
+		final GravityFilter filter = new GravityFilter();
+		final DripSimulation simulation = new DripSimulation(new DripAnimator(1, 0.5f, 100), new FillPredictor(), new WaterSurface(WaterSurface.MAX_COLUMNS, clock), new DripSimulation.AngleSource() {
+			@Override
+			public boolean hasAngle() {
+				return filter.hasAngle();
+			}
+
+			@Override
+			public double getAngle() {
+				return filter.getAngle();
+			}
+		});
+		simulation.setGoal(100);
+		simulation.setSeaBounds(900, 100);
+
+		TraceReplayer replayer = new TraceReplayer(new InputTraceReader(new ByteArrayInputStream(trace)), clock, FRAME, new TraceReplayer.Target() {
+			@Override
+			public void onSensorEvent(float x, float y, long eventNanos) {
+				filter.update(x, y, eventNanos);
+			}
+
+			@Override
+			public void onStepsCount(int count) {
+				simulation.getFillPredictor().onCount(count, clock.nanoTime());
+			}
+
+			@Override
+			public void onFrame(long frameTimeNanos) {
+				simulation.tick(frameTimeNanos, state);
+				states.add(state.getWaveX() + " " + state.getWaveY() + " " + state.getWaterRotation() + " "
+						+ Arrays.toString(Arrays.copyOf(state.getSurfaceHeights(), state.getSurfaceColumns())));
+			}
+		});
+		replayer.replay(TimeUnit.SECONDS.toNanos(2));
+		return states;
+	}
+}
@@ -0,0 +1,57 @@
+package nirhart.dripmysteps;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void bucketsCoverEveryLatencyInOrder() {
+		int previous = 0;
+		for (long micros = 0; micros < 100000; micros++) {
+			int bucket = LatencyHistogram.getBucket(micros);
+			assertTrue(bucket >= previous);
+			assertTrue(micros <= LatencyHistogram.getUpperMicros(bucket));
+			// Within a quarter of the latency, past the lowest buckets
+			if (micros > 8) {
+				assertTrue(LatencyHistogram.getUpperMicros(bucket) <= micros * 1.25);
+			}
+			previous = bucket;
+		}
+		assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.getBucket(Long.MAX_VALUE / 1000));
+	}
+
+	@Test
+	public void percentiles() {
+		LatencyHistogram histogram = new LatencyHistogram("test");
+		for (int i = 1; i <= 100; i++) {
+			histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+		}
+
+		assertEquals(100, histogram.getCount());
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(100), histogram.getMaxNanos());
+		assertNear(TimeUnit.MILLISECONDS.toNanos(50), histogram.getPercentile(50));
+		assertNear(TimeUnit.MILLISECONDS.toNanos(95), histogram.getPercentile(95));
+		assertNear(TimeUnit.MILLISECONDS.toNanos(99), histogram.getPercentile(99));
+		assertEquals(histogram.getMaxNanos(), histogram.getPercentile(100));
+	}
+
+	@Test
+	public void emptyAndReset() {
+		LatencyHistogram histogram = new LatencyHistogram("test");
+		assertEquals(0, histogram.getPercentile(50));
+
+		histogram.record(TimeUnit.MILLISECONDS.toNanos(3));
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getMaxNanos());
+		assertEquals(0, histogram.getPercentile(99));
+	}
+
+	private static void assertNear(long expected, long actual) {
+		assertTrue("expected about " + expected + " got " + actual, actual >= expected && actual <= expected * 1.25);
+	}
+}
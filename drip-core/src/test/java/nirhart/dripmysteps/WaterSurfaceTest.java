@@ -0,0 +1,97 @@
+package nirhart.dripmysteps;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class WaterSurfaceTest {
+
+	private static final long FRAME = TimeUnit.SECONDS.toNanos(1) / 60;
+
+	private final float[] heights = new float[WaterSurface.MAX_COLUMNS];
+	private WaterSurface surface;
+
+	@Before
+	public void setUp() {
+		surface = new WaterSurface(WaterSurface.MAX_COLUMNS);
+		// Keep the full resolution, the cost of a step depends on the machine
+		surface.setBudgetNanos(Long.MAX_VALUE);
+	}
+
+	@Test
+	public void tiltSloshesAndComesToRest() {
+		surface.setTilt(20);
+		advance(1);
+		assertFalse(surface.isCalm());
+
+		advance(600);
+		assertTrue(surface.isCalm());
+
+		// Tilted toward the right, the right side rests higher
+		int columns = surface.copyHeights(heights);
+		assertTrue(heights[columns - 1] > 0);
+		assertTrue(heights[0] < 0);
+	}
+
+	@Test
+	public void flatSurfaceIsCalm() {
+		advance(60);
+		assertTrue(surface.isCalm());
+		assertEquals(0, WaterSurface.getAmplitude(heights, surface.copyHeights(heights)), 0);
+	}
+
+	@Test
+	public void heightsAreCopiedAtTheCurrentResolution() {
+		surface.setBudgetNanos(-1);
+		surface.setTilt(20);
+		advance(3);
+		assertEquals(WaterSurface.MAX_COLUMNS / 2, surface.copyHeights(heights));
+		assertTrue(heights[0] < 0);
+	}
+
+	@Test
+	public void longGapsAreDropped() {
+		surface.advance(TimeUnit.SECONDS.toNanos(1));
+		assertEquals((int) (1 / WaterSurface.FIXED_STEP) - WaterSurface.MAX_STEPS, surface.getDroppedSteps());
+	}
+
+	@Test
+	public void resolutionFollowsTheBudget() {
+		// Every advance is over the budget
+		surface.setBudgetNanos(-1);
+		advance(3);
+		assertEquals(WaterSurface.MAX_COLUMNS / 2, surface.getColumns());
+		advance(100);
+		assertEquals(WaterSurface.MIN_COLUMNS, surface.getColumns());
+
+		surface.setBudgetNanos(Long.MAX_VALUE);
+		advance(120);
+		assertEquals(WaterSurface.MIN_COLUMNS * 2, surface.getColumns());
+	}
+
+	@Test
+	public void costIsMeasuredOnTheClock() {
+		// Every advance seems to take a millisecond, over the default budget whatever the machine
+		surface = new WaterSurface(WaterSurface.MAX_COLUMNS, new Clock() {
+			private long nanos;
+
+			@Override
+			public long nanoTime() {
+				nanos += TimeUnit.MILLISECONDS.toNanos(1);
+				return nanos;
+			}
+		});
+		advance(3);
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(1), surface.getLastCostNanos());
+		assertEquals(WaterSurface.MAX_COLUMNS / 2, surface.getColumns());
+	}
+
+	private void advance(int frames) {
+		for (int i = 0; i < frames; i++) {
+			surface.advance(FRAME);
+		}
+	}
+}